@@ -0,0 +1,57 @@
+import interpreter.Program;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+runs one compiled Program many times at once and checks every run prints what a run on its own does (user-044).
+
+    java -cp build/classes:<where this is compiled to> ProgramRuns threads runs script...
+
+each script is compiled once and run once alone, its output and exit code are what every other run must match.
+then it is run runs times on a pool of threads threads, all sharing the one Program.
+prints a line per script with the number of runs that didn't match, exits with 1 when any didn't.
+ */
+public class ProgramRuns {
+    public static void main(String[] args) throws Exception
+    {
+        int threads = Integer.parseInt(args[0]);
+        int runs = Integer.parseInt(args[1]);
+        int mismatched = 0;
+        for(int i = 2; i < args.length; i++){
+            Program program = Program.compile(Paths.get(args[i]),System.err);
+            if(program == null) throw new IllegalArgumentException(args[i]+" has errors.");
+            String expected = run(program);
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            List<Future<String>> results = new ArrayList<>();
+            long began = System.nanoTime();
+            for(int run = 0; run < runs; run++) results.add(pool.submit(() -> run(program)));
+            int bad = 0;
+            for(Future<String> result : results){
+                if(!result.get().equals(expected)) bad++;
+            }
+            pool.shutdown();
+            System.out.printf("%s: %d runs on %d threads, %d mismatches, %.1f ms%n",
+                    args[i],runs,threads,bad,(System.nanoTime()-began)/1e6);
+            mismatched += bad;
+        }
+        System.exit(mismatched == 0 ? 0 : 1);
+    }
+
+    private static String run(Program program)
+    {
+        //the exit code and everything printed, output and errors together
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes,true);
+        int code = program.run(out,out,new ByteArrayInputStream(new byte[0]),Collections.emptyList());
+        return code+":"+bytes;
+    }
+}
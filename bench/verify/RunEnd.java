@@ -0,0 +1,33 @@
+import interpreter.Program;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.Collections;
+
+/*
+runs a script the way the server runs one and checks the tasks it left behind stop with the run (user-045).
+
+    java -cp build/classes:<where this is compiled to> RunEnd script
+
+prints what the run printed, as one line, a few seconds after it ended, then how many task threads are still
+running. a task that kept going would have printed more by then and would still be running.
+ */
+public class RunEnd {
+    public static void main(String[] args) throws Exception
+    {
+        Program program = Program.compile(Paths.get(args[0]),System.err);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes,true);
+        int code = program.run(out,out,new ByteArrayInputStream(new byte[0]),Collections.emptyList());
+        Thread.sleep(3000);
+        System.out.println("exit "+code+", output: "+bytes.toString().replace("\n","|"));
+        int running = 0;
+        for(Thread thread : Thread.getAllStackTraces().keySet()){
+            if(thread.getName().startsWith("jem-task") && thread.getState() == Thread.State.RUNNABLE) running++;
+        }
+        System.out.println("running task threads: "+running);
+        System.exit(0);
+    }
+}
@@ -0,0 +1,69 @@
+#!/bin/sh
+#
+# checks the behaviour the concurrency, budget and runtime changes promise, on the interpreter bin/jem builds.
+#
+#   bench/verify/run.sh
+#
+# every script here is run and what it prints, errors and exit code included, is compared with the .expected
+# file of the same name. the system properties a script needs are listed in options() below and named on its
+# first line. then the two harnesses run: ProgramRuns runs a shared Program 64 times on 8 threads, RunEnd checks
+# the tasks a run leaves behind stop with it. exits with 1 when anything didn't match.
+#
+# output repeated on consecutive lines is counted once, how often a load test hits an error depends on the machine.
+
+HERE=$(cd "$(dirname "$0")" && pwd)
+JEM_HOME=$(cd "$HERE/../.." && pwd)
+JEM=$JEM_HOME/bin/jem
+JAVA=${JAVA:-java}
+JAVAC=${JAVAC:-javac}
+OUT=$(mktemp -d) || exit 1
+trap 'rm -rf "$OUT"' EXIT
+failed=0
+
+options() {
+    case "$1" in
+        lazy) echo "-Djem.lazyParse=true" ;;
+        fuel-parallel) echo "-Djem.fuel=300000" ;;
+        fuel-spawn) echo "-Djem.fuel=1000000" ;;
+        memory-make|memory-push) echo "-Djem.memory=100000" ;;
+    esac
+}
+
+check() {
+    # check name command..., run in this directory
+    name=$1
+    shift
+    (cd "$HERE" && "$@") > "$OUT/$name" 2>&1
+    echo "exit $?" >> "$OUT/$name"
+    if uniq "$OUT/$name" | diff "$HERE/$name.expected" - > "$OUT/$name.diff"; then
+        echo "ok      $name"
+    else
+        echo "FAILED  $name"
+        cat "$OUT/$name.diff"
+        failed=1
+    fi
+}
+
+for script in "$HERE"/*.jem; do
+    name=$(basename "$script" .jem)
+    case "$name" in
+        snapshot-*|run-end) continue ;;
+    esac
+    JEM_JAVA_OPTS=$(options "$name") check "$name" "$JEM" "$name.jem"
+done
+
+check snapshot sh -c "'$JEM' --snapshot '$OUT/globals.bin' snapshot-init.jem && '$JEM' --restore '$OUT/globals.bin' snapshot-after.jem"
+
+# bin/jem has built the classes by now
+CLASSES=${JEM_CLASSPATH:-$JEM_HOME/build/classes}
+mkdir -p "$OUT/harness"
+"$JAVAC" -encoding UTF-8 --release 11 -cp "$CLASSES" -d "$OUT/harness" "$HERE/ProgramRuns.java" "$HERE/RunEnd.java" || exit 1
+if "$JAVA" -cp "$CLASSES:$OUT/harness" ProgramRuns 8 64 "$HERE/oo.jem" "$HERE/calls.jem" "$HERE/map.jem"; then
+    echo "ok      ProgramRuns"
+else
+    echo "FAILED  ProgramRuns"
+    failed=1
+fi
+check run-end "$JAVA" -cp "$CLASSES:$OUT/harness" RunEnd run-end.jem
+
+exit $failed
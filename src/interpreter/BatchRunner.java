@@ -0,0 +1,161 @@
+package interpreter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+runs many scripts in one JVM, Jem --batch [--threads n] (script | directory)...
+a directory stands for the .jem files in it and below it, in name order.
+
+every script is compiled and run on a fixed pool of worker threads, one per core unless --threads says otherwise,
+as a Program with a Reporter of its own, so scripts never see each other's globals or errors.
+what a script prints is kept until it is done and then written out in the order the scripts were given,
+stdout to stdout and stderr to stderr, each followed by a line on stderr with its exit code and timings.
+the batch exits with the highest exit code of its scripts, so 0 only when every one of them succeeded.
+ */
+final class BatchRunner {
+    private final List<Path> scripts;
+    private final int threads;
+
+    BatchRunner(List<Path> scripts, int threads)
+    {
+        this.scripts = scripts;
+        this.threads = threads;
+    }
+
+    static int main(List<String> args) throws IOException
+    {
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<Path> scripts = new ArrayList<>();
+        for(int i = 0; i < args.size(); i++){
+            if(args.get(i).equals("--threads") && i+1 < args.size()){
+                threads = Math.max(1,Integer.parseInt(args.get(++i)));
+            }else{
+                addScripts(Paths.get(args.get(i)),scripts);
+            }
+        }
+        if(scripts.isEmpty()){
+            System.err.println("No scripts to run.");
+            return 64; //EX_USAGE
+        }
+        return new BatchRunner(scripts,threads).run();
+    }
+
+    private static void addScripts(Path path, List<Path> scripts) throws IOException
+    {
+        if(!Files.isDirectory(path)){
+            //a missing file is reported as its result, like any other script that can't be read
+            scripts.add(path);
+            return;
+        }
+        try(Stream<Path> files = Files.walk(path)){
+            scripts.addAll(files.filter(file -> file.toString().endsWith(".jem") && Files.isRegularFile(file))
+                    .sorted()
+                    .collect(Collectors.toList()));
+        }
+    }
+
+    int run()
+    {
+        long began = System.nanoTime();
+        AtomicInteger workers = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads,task -> {
+            Thread thread = new Thread(task,"jem-batch-"+workers.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<Future<Result>> results = new ArrayList<>();
+        for(Path script : scripts){
+            results.add(pool.submit(() -> execute(script)));
+        }
+        pool.shutdown();
+
+        int worst = 0;
+        int failed = 0;
+        long busy = 0;
+        for(int i = 0; i < results.size(); i++){
+            Result result;
+            try{
+                result = results.get(i).get();
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+                return 70;
+            }catch(ExecutionException e){
+                //execute() catches everything a script can throw, this is a bug in the runner itself
+                throw new IllegalStateException(e.getCause());
+            }
+            System.out.write(result.out,0,result.out.length);
+            System.out.flush();
+            System.err.write(result.err,0,result.err.length);
+            System.err.printf("%s: exit %d, compile %.2f ms, run %.2f ms%n",
+                    scripts.get(i),result.code,result.compile/1e6,result.run/1e6);
+            worst = Math.max(worst,result.code);
+            if(result.code != 0) failed++;
+            busy += result.compile+result.run;
+        }
+        System.err.printf("%d scripts, %d failed, %.2f ms on %d threads (%.2f ms of work)%n",
+                scripts.size(),failed,(System.nanoTime()-began)/1e6,threads,busy/1e6);
+        return worst;
+    }
+
+    private static final class Result {
+        final int code;
+        final byte[] out;
+        final byte[] err;
+        final long compile;
+        final long run;
+        Result(int code, byte[] out, byte[] err, long compile, long run)
+        {
+            this.code = code;
+            this.out = out;
+            this.err = err;
+            this.compile = compile;
+            this.run = run;
+        }
+    }
+
+    private static Result execute(Path script)
+    {
+        ByteArrayOutputStream outBytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream errBytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(outBytes,false);
+        PrintStream err = new PrintStream(errBytes,false);
+        //nothing to read from, io.readLine() sees the end of its input
+        Reporter reporter = new Reporter(out,err,new ByteArrayInputStream(new byte[0]));
+        long began = System.nanoTime();
+        long compiled = began;
+        int code;
+        try{
+            Program program = Program.compile(script,reporter);
+            compiled = System.nanoTime();
+            code = program == null ? reporter.exitCode() : program.run(reporter,Collections.emptyList());
+        }catch(IOException e){
+            compiled = System.nanoTime();
+            err.println("Can't read script: "+e.getMessage());
+            code = 66; //EX_NOINPUT
+        }catch(Throwable e){
+            //compiling a script nested too deeply for the parser ends that script only
+            err.println("Internal error: "+e);
+            code = 70;
+        }
+        long ended = System.nanoTime();
+        out.flush();
+        err.flush();
+        return new Result(code,outBytes.toByteArray(),errBytes.toByteArray(),compiled-began,ended-compiled);
+    }
+}
@@ -0,0 +1,132 @@
+package interpreter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+limits on one run of a script, so a script that loops forever or allocates without end is stopped with a
+RuntimeError instead of holding its thread. set with system properties, all of them optional:
+
+    -Djem.fuel=steps      how many steps the run may take, a step is one turn of a loop or one call
+    -Djem.deadline=ms     how long the run may take, counted from when its Interpreter was made
+    -Djem.memory=bytes    how much the run may allocate in all, see below for what is counted
+
+every run gets a budget of its own, one from the command line as well as each run of a Program (see JemServer
+and BatchRunner). tasks and parallel workers forked from a run spend from the budget of that run.
+
+the interpreter doesn't ask the budget at every step. it takes steps and bytes in chunks and counts them down in
+fields of its own (see Interpreter.tick() and Interpreter.allocate()), a step then costs a decrement and a branch,
+and the shared counters and the clock are only looked at once per chunk. so the deadline is noticed within a chunk
+of steps. a chunk is at most a 64th of the limit, and a fork gives back what it has left of its chunks when it
+ends (see Interpreter.retire()), so many short tasks or parallel chunks don't use up a small limit between them.
+a run without any limit has no budget at all and its counters start so high they never run out.
+
+memory counts what a script makes: environments, functions and bound methods, instances with the fields their
+class's init assigns, the strings made by concatenation and by the string and io libraries, and arrays along
+with their growth. fields added to an instance after init, maps, channels, tasks and the buffers natives keep
+for themselves (files read by the event loop, http connections) aren't counted. the sizes are estimates of what
+the JVM allocates for each, not measurements, and nothing is given back when the garbage collector frees it.
+a script blocked in a native, waiting on a channel or sleeping, takes no steps and isn't stopped until it
+takes one again.
+ */
+final class Budget {
+    //steps an interpreter takes from the budget at once
+    static final long STEPS = 10_000;
+    //bytes an interpreter takes from the budget at once
+    static final long BYTES = 64*1024;
+    //what allocations are charged at
+    static final long ENVIRONMENT_BYTES = 96;
+    static final long INSTANCE_BYTES = 48;
+    static final long FIELD_BYTES = 32;
+    static final long STRING_BYTES = 40;
+    static final long FUNCTION_BYTES = 32;
+    static final long ARRAY_BYTES = 24;
+    static final long ELEMENT_BYTES = 8;
+
+    private final long fuelLimit;
+    private final long memoryLimit;
+    private final long deadlineMillis;
+    //null when there is no limit of that kind
+    private final AtomicLong fuel;
+    private final AtomicLong memory;
+    private final long deadline;
+    //what one take() hands out at most
+    private final long stepChunk;
+    private final long byteChunk;
+
+    Budget(long fuel, long deadlineMillis, long memory)
+    {
+        //0 for no limit of that kind
+        this.fuelLimit = fuel;
+        this.memoryLimit = memory;
+        this.deadlineMillis = deadlineMillis;
+        this.fuel = fuel > 0 ? new AtomicLong(fuel) : null;
+        this.memory = memory > 0 ? new AtomicLong(memory) : null;
+        this.deadline = deadlineMillis > 0 ? System.nanoTime()+deadlineMillis*1_000_000L : 0;
+        this.stepChunk = chunk(fuel,STEPS);
+        this.byteChunk = chunk(memory,BYTES);
+    }
+
+    private static long chunk(long limit, long most)
+    {
+        return limit > 0 ? Math.max(1,Math.min(most,limit/64)) : most;
+    }
+
+    static Budget fromProperties()
+    {
+        //null when no limit was set
+        long fuel = property("jem.fuel");
+        long deadline = property("jem.deadline");
+        long memory = property("jem.memory");
+        if(fuel == 0 && deadline == 0 && memory == 0) return null;
+        return new Budget(fuel,deadline,memory);
+    }
+
+    private static long property(String name)
+    {
+        String value = System.getProperty(name);
+        if(value == null) return 0;
+        try{
+            return Math.max(0,Long.parseLong(value.trim()));
+        }catch(NumberFormatException e){
+            throw new IllegalArgumentException(name+" must be a whole number, not '"+value+"'.");
+        }
+    }
+
+    long steps(Token where)
+    {
+        //the next chunk of steps, an error when the run is past its deadline or out of fuel
+        if(deadline != 0 && System.nanoTime()-deadline > 0){
+            throw new RuntimeError(where,"The script ran longer than its deadline of "+deadlineMillis+" ms.");
+        }
+        if(fuel == null) return STEPS;
+        long granted = take(fuel,stepChunk);
+        if(granted == 0) throw new RuntimeError(where,"The script ran out of fuel after "+fuelLimit+" steps.");
+        return granted;
+    }
+
+    long bytes(Token where)
+    {
+        //the next chunk of bytes, an error when the run has allocated all it may
+        if(memory == null) return Long.MAX_VALUE/2;
+        long granted = take(memory,byteChunk);
+        if(granted == 0) throw new RuntimeError(where,"The script allocated more than its "+memoryLimit+" bytes.");
+        return granted;
+    }
+
+    void giveBack(long steps, long bytes)
+    {
+        //what a fork took and didn't spend
+        if(fuel != null && steps > 0) fuel.addAndGet(steps);
+        if(memory != null && bytes > 0) memory.addAndGet(bytes);
+    }
+
+    private static long take(AtomicLong left, long chunk)
+    {
+        for(;;){
+            long available = left.get();
+            if(available == 0) return 0;
+            long granted = Math.min(available,chunk);
+            if(left.compareAndSet(available,available-granted)) return granted;
+        }
+    }
+}
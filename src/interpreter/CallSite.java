@@ -0,0 +1,75 @@
+package interpreter;
+
+/*
+polymorphic inline cache for one call expression.
+it remembers the declarations of the last few functions and classes the site called, once each passed the
+callable and arity checks. the next call to a function or class made from one of those declarations skips the
+checks and the dispatch through JemCallable and is called straight, see Interpreter.dispatch().
+a function's arity comes with its declaration, a class still compares its arity because the same declaration can
+inherit init from a different superclass. every closure and bound method made from one declaration hits the same
+entry. a site that has seen more than MAX_TARGETS declarations is megamorphic and takes the slow path from then
+on, natives and intrinsics called through a variable always do.
+
+a compiled program can be run by many threads at once (see Program), so a site is shared by all of them.
+that is safe because the only thing kept is declarations, nodes of the shared tree, never a value of one run.
+the array of them is replaced rather than modified, so a reader never sees a half written one. two threads
+adding at once can lose one of the two entries, the thread whose callee was lost takes the slow path once more.
+hits and misses are only counted when call statistics were asked for, so running threads don't write to it on a hit.
+ */
+final class CallSite {
+    static final int MAX_TARGETS = 4;
+    private static final Object[] NONE = new Object[0];
+    //what targets becomes once a site has seen too many declarations, empty so a lookup misses without a check
+    private static final Object[] MEGAMORPHIC = new Object[0];
+
+    final int line;
+    //the declarations called here so far, never null or holding null
+    private volatile Object[] targets = NONE;
+    long hits = 0;
+    long misses = 0;
+
+    CallSite(int line)
+    {
+        this.line = line;
+    }
+    boolean cached(Object declaration)
+    {
+        for(Object target : targets){
+            if(target == declaration) return true;
+        }
+        return false;
+    }
+    void record(Object callee)
+    {
+        //only called for callees that passed the checks
+        Object declaration = declarationOf(callee);
+        if(declaration == null) return;
+        Object[] seen = targets;
+        if(seen == MEGAMORPHIC) return;
+        for(Object target : seen){
+            if(target == declaration) return;
+        }
+        if(seen.length == MAX_TARGETS){
+            targets = MEGAMORPHIC;
+            return;
+        }
+        Object[] grown = new Object[seen.length+1];
+        System.arraycopy(seen,0,grown,0,seen.length);
+        grown[seen.length] = declaration;
+        targets = grown;
+    }
+    private static Object declarationOf(Object callee)
+    {
+        //null for callees the site doesn't cache, and for classes that came back from a snapshot
+        if(callee instanceof JemFunction) return ((JemFunction)callee).declaration;
+        if(callee instanceof JemClass) return ((JemClass)callee).declaration;
+        return null;
+    }
+    @Override
+    public String toString()
+    {
+        Object[] seen = targets;
+        String state = seen == MEGAMORPHIC ? "megamorphic" : seen.length + " target(s)";
+        return "[line " + line + "] call: " + hits + " hits, " + misses + " misses, " + state;
+    }
+}
@@ -0,0 +1,195 @@
+package interpreter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+a queue tasks hand values over with, made by concurrent.channel(capacity).
+a channel with a capacity holds that many values and send() waits while it is full, one made with nil
+holds any number. recv() waits until there is a value.
+after close() nothing more can be sent, recv() still gets what is left and nil once the channel is empty.
+
+select() (see NativeLibraries.concurrent()) waits on several channels at once. it leaves a semaphore with each
+of them, every send and close releases the semaphores left with that channel so the select looks again.
+ */
+final class Channel implements NativeObject {
+    //stands in for nil in the queue, ArrayDeque takes no nulls
+    private static final Object NIL = new Object();
+    //what poll() returns when there is nothing to take right now
+    static final Object EMPTY = new Object();
+    //what poll() returns when there is nothing left to take ever
+    static final Object CLOSED = new Object();
+
+    private final int capacity;
+    private final ArrayDeque<Object> values = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final List<Semaphore> selectors = new ArrayList<>();
+    private boolean closed = false;
+
+    Channel(int capacity)
+    {
+        //Integer.MAX_VALUE for a channel without a limit
+        this.capacity = capacity;
+    }
+
+    void send(Object value)
+    {
+        //the task that receives it can reach everything it holds
+        JemTask.share(value);
+        lock.lock();
+        try{
+            while(values.size() >= capacity && !closed) notFull.await();
+            if(closed) throw new RuntimeError(null,"Can't send on a closed channel.");
+            values.addLast(value == null ? NIL : value);
+            notEmpty.signal();
+            wakeSelectors();
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new RuntimeError(null,"Interrupted while sending.");
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    Object recv()
+    {
+        lock.lock();
+        try{
+            while(values.isEmpty() && !closed) notEmpty.await();
+            return take();
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new RuntimeError(null,"Interrupted while receiving.");
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    Object poll()
+    {
+        //a value if there is one, otherwise EMPTY or CLOSED. never waits
+        lock.lock();
+        try{
+            if(values.isEmpty()) return closed ? CLOSED : EMPTY;
+            return take();
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    private Object take()
+    {
+        //the lock is held. nil once the channel is closed and empty
+        Object value = values.pollFirst();
+        if(value == null) return null;
+        notFull.signal();
+        return value == NIL ? null : value;
+    }
+
+    void close()
+    {
+        lock.lock();
+        try{
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+            wakeSelectors();
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    boolean watch(Semaphore selector)
+    {
+        //leaves the selector with this channel, false when the channel already has something for it
+        lock.lock();
+        try{
+            if(!values.isEmpty()) return false;
+            //a closed channel will never have anything, there is no point waking for it
+            if(!closed) selectors.add(selector);
+            return true;
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    void unwatch(Semaphore selector)
+    {
+        lock.lock();
+        try{
+            selectors.remove(selector);
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    private void wakeSelectors()
+    {
+        for(Semaphore selector : selectors) selector.release();
+    }
+
+    static Object[] select(Channel[] channels)
+    {
+        /*
+        the channel and the value of the first one that has something, channels are looked at from a different
+        one each round so a busy channel doesn't starve the others. null when all of them are closed and empty.
+         */
+        Semaphore selector = new Semaphore(0);
+        int start = 0;
+        for(;;){
+            int closed = 0;
+            for(int i = 0; i < channels.length; i++){
+                Channel channel = channels[(start+i) % channels.length];
+                Object value = channel.poll();
+                if(value == CLOSED) closed++;
+                else if(value != EMPTY) return new Object[]{channel,value};
+            }
+            if(closed == channels.length) return null;
+            start++;
+
+            //watch all of them, then look again, a send between the look above and watching would be missed otherwise
+            boolean ready = false;
+            int watched = 0;
+            while(watched < channels.length && !ready){
+                ready = !channels[watched++].watch(selector);
+            }
+            try{
+                if(!ready) selector.acquire();
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new RuntimeError(null,"Interrupted while waiting in select.");
+            }finally{
+                for(int i = 0; i < watched; i++) channels[i].unwatch(selector);
+            }
+        }
+    }
+
+    @Override
+    public Object get(Token name)
+    {
+        switch(name.lexeme){
+            case "send": return new NativeLibraries.Native("channel.send",1,(interpreter,args) -> {
+                send(args.get(0));
+                return null;
+            });
+            case "recv": return new NativeLibraries.Native("channel.recv",0,(interpreter,args) -> recv());
+            case "close": return new NativeLibraries.Native("channel.close",0,(interpreter,args) -> {
+                close();
+                return null;
+            });
+            default: throw new RuntimeError(name,"Channels have no property '"+name.lexeme+"'.");
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "<channel>";
+    }
+}
@@ -1,12 +1,21 @@
 package interpreter;
 
+import java.util.ArrayDeque;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Environment {
-    final Environment enclosing;
+    //stands in for nil in a shared environment, ConcurrentHashMap takes no nulls
+    private static final Object NIL = new Object();
+    //not final so the interpreter can recycle environments, see Interpreter.acquire()
+    Environment enclosing;
+    //set once a function or class has closed over this environment or one nested in it
+    private boolean captured = false;
+    //set once another thread can reach this environment, see share()
+    private boolean shared = false;
     //a map for variable names and values
-    private final Map<String,Object> values = new HashMap<>();
+    private Map<String,Object> values = new HashMap<>();
     Environment()
     {
         //this constructor is for global scope which ends the chain
@@ -19,10 +28,9 @@ public class Environment {
     }
     Object get(Token name)
     {
-        if(values.containsKey(name.lexeme))
-        {
-            return values.get(name.lexeme);
-        }
+        Object value = values.get(name.lexeme);
+        if(value != null) return value == NIL ? null : value;
+        if(values.containsKey(name.lexeme)) return null;
         if (enclosing!=null) return enclosing.get(name);
 
         throw new RuntimeError(name,"Undefined variable '"+name.lexeme+"'.");
@@ -31,7 +39,7 @@ public class Environment {
     {
         if(values.containsKey(name.lexeme))
         {
-            values.put(name.lexeme,value);
+            put(name.lexeme,value);
             return;
         }
         if(enclosing!=null)
@@ -43,9 +51,78 @@ public class Environment {
         throw new RuntimeError(name,
                 "Undefined variable '"+name.lexeme+ "'.");
     }
+    Map<String,Object> values()
+    {
+        //the variables defined right here, for Snapshot. only to be read
+        if(!shared) return values;
+        Map<String,Object> copy = new HashMap<>();
+        for(Map.Entry<String,Object> entry : values.entrySet()){
+            copy.put(entry.getKey(),entry.getValue() == NIL ? null : entry.getValue());
+        }
+        return copy;
+    }
+    boolean isDefined(String name)
+    {
+        //only looks in this environment, not the ones enclosing it
+        return values.containsKey(name);
+    }
     void define(String name, Object value)
     {
-        values.put(name,value);
+        put(name,value);
+    }
+    private void put(String name, Object value)
+    {
+        if(!shared){
+            values.put(name,value);
+            return;
+        }
+        //other threads can read it from here
+        JemTask.share(value);
+        values.put(name,value == null ? NIL : value);
+    }
+    void capture()
+    {
+        /*
+        a closure keeps its whole enclosing chain alive, so mark all of it.
+        if an environment is already captured so are all of its ancestors and we can stop there.
+         */
+        for(Environment environment = this; environment != null && !environment.captured; environment = environment.enclosing){
+            environment.captured = true;
+        }
+    }
+    boolean isCaptured()
+    {
+        return captured;
+    }
+    void share(ArrayDeque<Object> pending)
+    {
+        /*
+        called, through JemTask.share(), by a thread about to hand this environment to another one.
+        from then on it can be read and written by several threads at once, so its map is swapped for a
+        concurrent one, reads take no lock and writes only lock a part of the map. that only keeps the map whole,
+        a read and a write from two tasks can still interleave however they like, tasks that need more than that
+        use a channel.
+        the handoff happens after the swap, so the other thread never sees the old map. the enclosing environment
+        and the values go to pending to be shared in turn, and whatever is stored here later is shared by put().
+         */
+        if(shared) return;
+        Map<String,Object> concurrent = new ConcurrentHashMap<>();
+        for(Map.Entry<String,Object> entry : values.entrySet()){
+            concurrent.put(entry.getKey(),entry.getValue() == null ? NIL : entry.getValue());
+            if(entry.getValue() != null) pending.add(entry.getValue());
+        }
+        values = concurrent;
+        shared = true;
+        //never handed out again by the pool, another thread may still be using it
+        captured = true;
+        if(enclosing != null) pending.add(enclosing);
+    }
+    void reset(Environment enclosing)
+    {
+        //forget everything so a recycled environment looks like a new one
+        values.clear();
+        this.enclosing = enclosing;
+        captured = false;
     }
     Environment ancestor (int distance){
         Environment environment = this;
@@ -56,10 +133,11 @@ public class Environment {
         return environment;
     }
     Object getAt(int distance,String name){
-        return ancestor(distance).values.get(name);
+        Object value = ancestor(distance).values.get(name);
+        return value == NIL ? null : value;
     }
     void assignAt(int distance, Token name, Object value)
     {
-        ancestor(distance).values.put(name.lexeme,value);
+        ancestor(distance).put(name.lexeme,value);
     }
 }
@@ -0,0 +1,399 @@
+package interpreter;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/*
+timers, file reads and sockets whose results come back as calls to functions of the script, see
+NativeLibraries.events(). there is one loop per run, made the first time the script uses the events library.
+
+nothing here has a thread of its own. when the top level of the script is done Interpreter.interpret() runs the
+loop on the same thread until there is nothing left to wait for: no timer, no open socket and no file read in
+flight. every wait is one Selector.select(), with the time to the next timer as its timeout, so thousands of
+timers and sockets cost a heap entry or a selection key each and never a thread.
+file channels can't be selected, files are read with an AsynchronousFileChannel instead, whose threads only hand
+the bytes back through a queue and wake the selector, the callback still runs on the loop.
+
+callbacks run one at a time and never in the middle of the script or of another callback, so they need no locks.
+an error in a callback is reported like one at the top level and ends the loop, timers and sockets left are dropped.
+ */
+final class EventLoop {
+    //what one read from a socket takes at most, the buffer is shared by every socket of the loop
+    private static final int READ_BUFFER = 64*1024;
+
+    private final Interpreter interpreter;
+    private final Selector selector;
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>(
+            Comparator.comparingLong((Timer timer) -> timer.due).thenComparingLong(timer -> timer.sequence));
+    //callbacks the threads of file reads hand back and failures waiting their turn, the only part of the loop
+    //touched by other threads
+    private final Queue<Runnable> completions = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER);
+    private final List<Connection> connections = new ArrayList<>();
+    private long sequence = 0;
+    //file reads started and failures queued, not handed back yet
+    private int pending = 0;
+
+    EventLoop(Interpreter interpreter)
+    {
+        this.interpreter = interpreter;
+        try{
+            this.selector = Selector.open();
+        }catch(IOException e){
+            throw new RuntimeError(null,"Can't start the event loop: "+e.getMessage());
+        }
+    }
+
+    static final class Timer {
+        private final JemCallable callback;
+        //nanoseconds between runs of an interval, 0 for a timeout
+        private final long period;
+        private long due;
+        private long sequence;
+        Timer(JemCallable callback, long due, long period)
+        {
+            this.callback = callback;
+            this.due = due;
+            this.period = period;
+        }
+        @Override
+        public String toString()
+        {
+            return period == 0 ? "<timeout>" : "<interval>";
+        }
+    }
+
+    Timer schedule(JemCallable callback, double millis, boolean repeat)
+    {
+        NativeLibraries.checkArity(repeat ? "setInterval" : "setTimeout",callback,0);
+        if(millis < 0 || (repeat && millis == 0) || Double.isNaN(millis)){
+            throw new RuntimeError(null,repeat ? "An interval must be longer than 0 ms." : "A timeout can't be negative.");
+        }
+        long nanos = (long)(millis*1e6);
+        Timer timer = new Timer(callback,System.nanoTime()+nanos,repeat ? nanos : 0);
+        add(timer);
+        return timer;
+    }
+
+    private void add(Timer timer)
+    {
+        //timers due at the same time run in the order they were added
+        timer.sequence = sequence++;
+        timers.add(timer);
+    }
+
+    void clear(Timer timer)
+    {
+        //an interval is added again before its callback runs, so clearing it from inside the callback works too
+        timers.remove(timer);
+    }
+
+    void readFile(String path, JemCallable callback)
+    {
+        //callback(text, nil) once the whole file is read, callback(nil, message) when it can't be
+        NativeLibraries.checkArity("readFile",callback,2);
+        pending++;
+        try{
+            AsynchronousFileChannel file = AsynchronousFileChannel.open(Paths.get(path),StandardOpenOption.READ);
+            long size = file.size();
+            if(size > Integer.MAX_VALUE){
+                file.close();
+                throw new IOException("the file is too big to read at once");
+            }
+            readChunk(file,ByteBuffer.allocate((int)size),path,callback);
+        }catch(IOException | RuntimeException e){
+            //handed back like any other result, so the callback never runs before readFile returns
+            finish(callback,null,"Can't read '"+path+"': "+e.getMessage());
+        }
+    }
+
+    private void readChunk(AsynchronousFileChannel file, ByteBuffer bytes, String path, JemCallable callback)
+    {
+        file.read(bytes,bytes.position(),null,new CompletionHandler<Integer,Void>() {
+            @Override
+            public void completed(Integer count, Void attachment)
+            {
+                if(count >= 0 && bytes.hasRemaining()){
+                    readChunk(file,bytes,path,callback);
+                    return;
+                }
+                close(file);
+                bytes.flip();
+                finish(callback,StandardCharsets.UTF_8.decode(bytes).toString(),null);
+            }
+            @Override
+            public void failed(Throwable error, Void attachment)
+            {
+                close(file);
+                finish(callback,null,"Can't read '"+path+"': "+error.getMessage());
+            }
+        });
+    }
+
+    private static void close(AsynchronousFileChannel file)
+    {
+        try{
+            file.close();
+        }catch(IOException ignored){
+            //everything was read already
+        }
+    }
+
+    private void finish(JemCallable callback, Object text, Object error)
+    {
+        //called on a thread of the file channel or on the loop itself, the callback runs on the loop once it is free
+        completions.add(() -> {
+            pending--;
+            call(callback,text,error);
+        });
+        selector.wakeup();
+    }
+
+    Connection connect(String host, int port, JemCallable callback)
+    {
+        //callback(text, nil) for everything that arrives, then callback(nil, nil) at the end or callback(nil, message)
+        NativeLibraries.checkArity("connect",callback,2);
+        try{
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            Connection connection = new Connection(channel,callback);
+            boolean connected = channel.connect(new InetSocketAddress(host,port));
+            connection.key = channel.register(selector,connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT,connection);
+            connections.add(connection);
+            return connection;
+        }catch(IOException | RuntimeException e){
+            throw new RuntimeError(null,"Can't connect to "+host+":"+port+": "+e.getMessage());
+        }
+    }
+
+    final class Connection implements NativeObject {
+        private final SocketChannel channel;
+        private final JemCallable callback;
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        //the start of a character the last read cut in two
+        private final ByteBuffer partial = ByteBuffer.allocate(8);
+        private final ArrayDeque<ByteBuffer> writes = new ArrayDeque<>();
+        private SelectionKey key;
+        //close() was called, the socket closes once everything written so far is sent
+        private boolean closing = false;
+        private boolean closed = false;
+
+        Connection(SocketChannel channel, JemCallable callback)
+        {
+            this.channel = channel;
+            this.callback = callback;
+        }
+
+        private void write(String text)
+        {
+            if(closing) throw new RuntimeError(null,"Can't write to a closed connection.");
+            writes.add(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)));
+            if(channel.isConnected()) flush();
+        }
+
+        private void flush()
+        {
+            //sends what the socket takes now, the rest waits for the socket to be writable again
+            try{
+                while(!writes.isEmpty()){
+                    ByteBuffer next = writes.peek();
+                    channel.write(next);
+                    if(next.hasRemaining()) break;
+                    writes.poll();
+                }
+            }catch(IOException e){
+                fail(e);
+                return;
+            }
+            if(writes.isEmpty() && closing){
+                end();
+                return;
+            }
+            key.interestOps(SelectionKey.OP_READ | (writes.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+        }
+
+        private void connected()
+        {
+            try{
+                channel.finishConnect();
+            }catch(IOException e){
+                fail(e);
+                return;
+            }
+            flush();
+        }
+
+        private void read()
+        {
+            int count;
+            readBuffer.clear();
+            partial.flip();
+            readBuffer.put(partial);
+            partial.clear();
+            try{
+                count = channel.read(readBuffer);
+            }catch(IOException e){
+                fail(e);
+                return;
+            }
+            readBuffer.flip();
+            CharBuffer text = CharBuffer.allocate(readBuffer.remaining());
+            decoder.decode(readBuffer,text,count < 0);
+            partial.put(readBuffer);
+            text.flip();
+            if(text.hasRemaining()) call(callback,text.toString(),null);
+            if(count < 0 && !closed){
+                end();
+                call(callback,null,null);
+            }
+        }
+
+        private void fail(IOException error)
+        {
+            /*
+            a write fails in the middle of the statement that called it, so the callback is queued like the result
+            of a file read rather than called from here, the same for every failure so they all come in one order.
+             */
+            if(closed) return;
+            end();
+            pending++;
+            finish(callback,null,error.getMessage() == null ? error.toString() : error.getMessage());
+        }
+
+        private void end()
+        {
+            closed = true;
+            closing = true;
+            connections.remove(this);
+            if(key != null) key.cancel();
+            try{
+                channel.close();
+            }catch(IOException ignored){
+                //nothing more will be read or written either way
+            }
+        }
+
+        @Override
+        public Object get(Token name)
+        {
+            switch(name.lexeme){
+                case "write": return new NativeLibraries.Native("connection.write",1,(interpreter,args) -> {
+                    if(!(args.get(0) instanceof String)) throw new RuntimeError(null,"Argument 1 must be a string.");
+                    write((String)args.get(0));
+                    return null;
+                });
+                case "close": return new NativeLibraries.Native("connection.close",0,(interpreter,args) -> {
+                    if(closing) return null;
+                    closing = true;
+                    if(writes.isEmpty()) end();
+                    return null;
+                });
+                default: throw new RuntimeError(name,"Connections have no property '"+name.lexeme+"'.");
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return "<connection>";
+        }
+    }
+
+    private void call(JemCallable callback, Object first, Object second)
+    {
+        //file and socket callbacks take two arguments, checked when they were handed over
+        callback.call2(interpreter,first,second);
+    }
+
+    void run()
+    {
+        //until nothing is left to wait for, called once the top level of the script is done
+        try{
+            while(!timers.isEmpty() || !connections.isEmpty() || pending > 0){
+                select();
+                Runnable completion;
+                while((completion = completions.poll()) != null) completion.run();
+                runTimers();
+            }
+        }finally{
+            close();
+        }
+    }
+
+    private void select()
+    {
+        try{
+            Timer next = timers.peek();
+            if(next == null){
+                selector.select();
+            }else{
+                long wait = next.due-System.nanoTime();
+                //select() takes milliseconds and 0 means forever, round up so a timer is never run early
+                if(wait <= 0) selector.selectNow();
+                else selector.select((wait+999_999)/1_000_000);
+            }
+        }catch(IOException e){
+            throw new RuntimeError(null,"The event loop failed: "+e.getMessage());
+        }
+        for(SelectionKey key : selector.selectedKeys()){
+            Connection connection = (Connection)key.attachment();
+            if(!key.isValid()) continue;
+            if(key.isConnectable()) connection.connected();
+            else{
+                if(key.isValid() && key.isWritable()) connection.flush();
+                if(key.isValid() && key.isReadable()) connection.read();
+            }
+        }
+        selector.selectedKeys().clear();
+    }
+
+    private void runTimers()
+    {
+        //only the timers added before this pass, one that keeps adding a timeout of 0 can't keep out the sockets
+        long now = System.nanoTime();
+        long last = sequence;
+        Timer timer;
+        while((timer = timers.peek()) != null && timer.due <= now && timer.sequence < last){
+            timers.poll();
+            if(timer.period > 0){
+                //the next run is counted from when this one was due, so an interval doesn't drift
+                timer.due = Math.max(timer.due+timer.period,now);
+                add(timer);
+            }
+            timer.callback.call0(interpreter);
+        }
+    }
+
+    void close()
+    {
+        //drops whatever is left, after an error or once the loop has nothing more to do
+        timers.clear();
+        for(Connection connection : new ArrayList<>(connections)) connection.end();
+        try{
+            selector.close();
+        }catch(IOException ignored){
+            //the selector holds nothing that outlives the run
+        }
+    }
+}
@@ -12,6 +12,7 @@ abstract class Expr {
         R visitLiteralExpr(Literal expr);
         R visitLogicalExpr(Logical expr);
         R visitSetExpr(Set expr);
+        R visitSpawnExpr(Spawn expr);
         R visitSuperExpr(Super expr);
         R visitThisExpr(This expr);
         R visitUnaryExpr(Unary expr);
@@ -30,6 +31,8 @@ abstract class Expr {
 
         final Token name;
         final Expr value;
+        //scopes between here and the declaration, set by the resolver. -1 for a global
+        int depth = -1;
     }
     static class Binary extends Expr {
         Binary(Expr left, Token operator, Expr right)  {
@@ -62,6 +65,10 @@ abstract class Expr {
         final Expr callee;
         final Token paren;
         final List<Expr> arguments;
+        //created by the interpreter the first time the call runs, shared by every run of the program
+        volatile CallSite site;
+        //set by the resolver when the callee is the global name of a math intrinsic
+        MathIntrinsic intrinsic;
     }
     static class Get extends Expr {
         Get(Expr Object, Token name)  {
@@ -133,6 +140,21 @@ abstract class Expr {
         final Token name;
         final Expr value;
     }
+    static class Spawn extends Expr {
+        Spawn(Token keyword, Call call)  {
+            this.keyword = keyword;
+            this.call = call;
+        }
+
+        @Override
+        <R> R accept(Visitor<R>  visitor)  {
+            return visitor.visitSpawnExpr(this);
+        }
+
+        final Token keyword;
+        //the call that runs on the new task, its callee and arguments are evaluated before it starts
+        final Call call;
+    }
     static class Super extends Expr {
         Super(Token keyword, Token method)  {
             this.keyword = keyword;
@@ -146,6 +168,10 @@ abstract class Expr {
 
         final Token keyword;
         final Token method;
+        //scopes between here and the declaration, set by the resolver. -1 for a global
+        int depth = -1;
+        //what this expression found the last time it ran, see Interpreter.superMethod()
+        volatile Interpreter.SuperTarget target;
     }
     static class This extends Expr {
         This(Token keyword)  {
@@ -158,6 +184,8 @@ abstract class Expr {
         }
 
         final Token keyword;
+        //scopes between here and the declaration, set by the resolver. -1 for a global
+        int depth = -1;
     }
     static class Unary extends Expr {
         Unary(Token operator, Expr right)  {
@@ -184,6 +212,8 @@ abstract class Expr {
         }
 
         final Token name;
+        //scopes between here and the declaration, set by the resolver. -1 for a global
+        int depth = -1;
     }
 
     abstract <R> R accept(Visitor<R> visitor);
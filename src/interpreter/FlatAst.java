@@ -0,0 +1,628 @@
+package interpreter;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+a compact encoding of a resolved program.
+a tree of Expr and Stmt objects costs a few objects per node, each with its own header and references,
+plus a Token with its lexeme for every name and operator. here the whole program is one int array instead.
+every node is a record in it: the node's kind followed by its operands, which are
+    - the offsets of child nodes (-1 when there is none, like a missing else branch)
+    - inline lists, a count followed by that many entries
+    - tokens, two ints: the type ordinal with the lexeme's index in the name pool above it, and the line
+    - indexes into the constant pool for literal values
+    - the depths the resolver worked out and the math intrinsic of a call
+names and constants are pooled, so every distinct name or literal is stored once.
+the encoding keeps everything the interpreter needs, so nodes can be turned back into Expr and Stmt objects
+one at a time without running the resolver again. the top-level statements are decoded as they are executed
+and a function's body only when it is first called, so code that never runs stays in its compact form.
+ */
+final class FlatAst {
+    private static final int ASSIGN = 1;
+    private static final int BINARY = 2;
+    private static final int CALL = 3;
+    private static final int GET = 4;
+    private static final int GROUPING = 5;
+    private static final int LITERAL = 6;
+    private static final int LOGICAL = 7;
+    private static final int SET = 8;
+    private static final int SUPER = 9;
+    private static final int THIS = 10;
+    private static final int UNARY = 11;
+    private static final int VARIABLE = 12;
+    private static final int BLOCK = 13;
+    private static final int CLASS = 14;
+    private static final int EXPRESSION = 15;
+    private static final int FUNCTION = 16;
+    private static final int IF = 17;
+    private static final int PRINT = 18;
+    private static final int RETURN = 19;
+    private static final int VAR = 20;
+    private static final int WHILE = 21;
+    private static final int IMPORT = 22;
+    private static final int SPAWN = 23;
+
+    private static final TokenTypes[] TYPES = TokenTypes.values();
+    private static final MathIntrinsic[] INTRINSICS = MathIntrinsic.values();
+
+    private int[] code;
+    private int size = 0;
+    private String[] names;
+    private Object[] constants;
+    //offset of the list of top-level statements
+    private int root;
+    //only there while the program is being written, see seal()
+    private Encoder encoder;
+
+    private FlatAst()
+    {
+        code = new int[1024];
+        encoder = new Encoder();
+    }
+
+    static FlatAst encode(List<Stmt> statements)
+    {
+        FlatAst program = new FlatAst();
+        program.seal(program.encoder.statementList(statements));
+        return program;
+    }
+    /*
+    a FlatAst holding just the functions put in with add(), and no top-level statements.
+    used for the declarations of functions that exist as values, see Snapshot.
+     */
+    static FlatAst functions()
+    {
+        return new FlatAst();
+    }
+    int add(Stmt.Function function)
+    {
+        //the offset to give functionAt(), a function added twice, or nested in one added before, is only written once
+        return encoder.encode(function);
+    }
+    void seal()
+    {
+        seal(encoder.statementList(Collections.emptyList()));
+    }
+    private void seal(int root)
+    {
+        this.root = root;
+        names = encoder.names.toArray(new String[0]);
+        constants = encoder.constants.toArray();
+        encoder = null;
+        int[] trimmed = new int[size];
+        System.arraycopy(code,0,trimmed,0,size);
+        code = trimmed;
+    }
+    Stmt.Function functionAt(int node)
+    {
+        if(code[node] != FUNCTION) throw new IllegalStateException("Not a function at "+node+".");
+        return function(node);
+    }
+
+    /*
+    the flat form written out as it is: the root, the code array, the names and the constants.
+    everything is big endian, the way DataOutputStream writes it, so the code array can be read back in one go.
+    constants are a tag byte followed by the value. strings are written as a length and their UTF-8 bytes,
+    writeUTF can't take strings longer than 64k.
+     */
+    private static final byte NIL = 0;
+    private static final byte BOOLEAN = 1;
+    private static final byte NUMBER = 2;
+    private static final byte STRING = 3;
+
+    void writeTo(DataOutputStream out) throws IOException
+    {
+        out.writeInt(root);
+        out.writeInt(code.length);
+        ByteBuffer bytes = ByteBuffer.allocate(4*code.length);
+        bytes.asIntBuffer().put(code);
+        out.write(bytes.array());
+        out.writeInt(names.length);
+        for(String name : names) writeString(out,name);
+        out.writeInt(constants.length);
+        for(Object constant : constants){
+            if(constant == null){
+                out.writeByte(NIL);
+            }else if(constant instanceof Boolean){
+                out.writeByte(BOOLEAN);
+                out.writeBoolean((Boolean)constant);
+            }else if(constant instanceof Double){
+                out.writeByte(NUMBER);
+                out.writeDouble((Double)constant);
+            }else{
+                out.writeByte(STRING);
+                writeString(out,(String)constant);
+            }
+        }
+    }
+    static FlatAst readFrom(ByteBuffer in)
+    {
+        /*
+        a truncated or damaged buffer ends in a RuntimeException, callers treat that as nothing read.
+        every count is checked against the bytes left before anything is allocated for it, so a damaged length
+        can't ask for more memory than the file has.
+         */
+        FlatAst program = new FlatAst();
+        program.encoder = null;
+        program.root = in.getInt();
+        program.code = new int[count(in,4)];
+        if(program.root < 0 || program.root >= program.code.length) throw new IllegalStateException("Root out of range.");
+        in.asIntBuffer().get(program.code);
+        in.position(in.position()+4*program.code.length);
+        program.size = program.code.length;
+        program.names = new String[count(in,4)];
+        for(int i = 0; i < program.names.length; i++) program.names[i] = readString(in);
+        program.constants = new Object[count(in,1)];
+        for(int i = 0; i < program.constants.length; i++){
+            byte tag = in.get();
+            switch(tag){
+                case NIL: break;
+                case BOOLEAN: program.constants[i] = in.get() != 0; break;
+                case NUMBER: program.constants[i] = in.getDouble(); break;
+                case STRING: program.constants[i] = readString(in); break;
+                default: throw new IllegalStateException("Unknown constant tag "+tag+".");
+            }
+        }
+        return program;
+    }
+    private static void writeString(DataOutputStream out, String value) throws IOException
+    {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    private static int count(ByteBuffer in, int smallest)
+    {
+        //how many of something follow, each taking at least smallest bytes
+        int count = in.getInt();
+        if(count < 0 || (long)count*smallest > in.remaining()) throw new IllegalStateException("Bad count "+count+".");
+        return count;
+    }
+    private static String readString(ByteBuffer in)
+    {
+        byte[] bytes = new byte[count(in,1)];
+        in.get(bytes);
+        return new String(bytes,StandardCharsets.UTF_8);
+    }
+
+    List<Stmt> statements()
+    {
+        //a view that decodes each top-level statement when it is asked for, nothing keeps the result alive
+        return new AbstractList<Stmt>() {
+            @Override
+            public Stmt get(int index) {
+                return statement(code[root+1+index]);
+            }
+            @Override
+            public int size() {
+                return code[root];
+            }
+        };
+    }
+
+    private Stmt statement(int node)
+    {
+        if(node < 0) return null;
+        switch(code[node]){
+            case BLOCK:
+                return new Stmt.Block(statementList(node+1));
+            case CLASS: {
+                int superclass = code[node+3];
+                return new Stmt.Class(token(node+1),
+                        superclass < 0 ? null : (Expr.Variable)expression(superclass),
+                        functionList(node+4));
+            }
+            case EXPRESSION:
+                return new Stmt.Expression(expression(code[node+1]));
+            case FUNCTION:
+                return function(node);
+            case IF:
+                return new Stmt.If(expression(code[node+1]),statement(code[node+2]),statement(code[node+3]));
+            case IMPORT:
+                return new Stmt.Import(token(node+1));
+            case PRINT:
+                return new Stmt.Print(expression(code[node+1]));
+            case RETURN:
+                return new Stmt.Return(token(node+1),expression(code[node+3]));
+            case VAR:
+                return new Stmt.Var(token(node+1),expression(code[node+3]));
+            case WHILE:
+                return new Stmt.While(expression(code[node+1]),statement(code[node+2]));
+            default:
+                throw new IllegalStateException("Not a statement at "+node+".");
+        }
+    }
+    private Stmt.Function function(int node)
+    {
+        int count = code[node+3];
+        List<Token> params = new ArrayList<>(count);
+        for(int i = 0; i < count; i++){
+            params.add(token(node+4+2*i));
+        }
+        int body = node+4+2*count;
+        return new Stmt.Function(token(node+1),params,() -> statementList(body));
+    }
+    private Expr expression(int node)
+    {
+        if(node < 0) return null;
+        switch(code[node]){
+            case ASSIGN: {
+                Expr.Assign expr = new Expr.Assign(token(node+1),expression(code[node+3]));
+                expr.depth = code[node+4];
+                return expr;
+            }
+            case BINARY:
+                return new Expr.Binary(expression(code[node+1]),token(node+2),expression(code[node+4]));
+            case CALL: {
+                Expr.Call expr = new Expr.Call(expression(code[node+1]),token(node+2),expressionList(node+5));
+                int intrinsic = code[node+4];
+                if(intrinsic >= 0) expr.intrinsic = INTRINSICS[intrinsic];
+                return expr;
+            }
+            case GET:
+                return new Expr.Get(expression(code[node+1]),token(node+2));
+            case GROUPING:
+                return new Expr.Grouping(expression(code[node+1]));
+            case LITERAL:
+                return new Expr.Literal(constants[code[node+1]]);
+            case LOGICAL:
+                return new Expr.Logical(expression(code[node+1]),token(node+2),expression(code[node+4]));
+            case SET:
+                return new Expr.Set(expression(code[node+1]),token(node+2),expression(code[node+4]));
+            case SUPER: {
+                Expr.Super expr = new Expr.Super(token(node+1),token(node+3));
+                expr.depth = code[node+5];
+                return expr;
+            }
+            case THIS: {
+                Expr.This expr = new Expr.This(token(node+1));
+                expr.depth = code[node+3];
+                return expr;
+            }
+            case UNARY:
+                return new Expr.Unary(token(node+1),expression(code[node+3]));
+            case SPAWN:
+                return new Expr.Spawn(token(node+1),(Expr.Call)expression(code[node+3]));
+            case VARIABLE: {
+                Expr.Variable expr = new Expr.Variable(token(node+1));
+                expr.depth = code[node+3];
+                return expr;
+            }
+            default:
+                throw new IllegalStateException("Not an expression at "+node+".");
+        }
+    }
+    private Token token(int at)
+    {
+        //only names and operators end up in tokens of the tree, their literal is never looked at
+        int packed = code[at];
+        return new Token(TYPES[packed & 0xff],names[packed >>> 8],null,code[at+1]);
+    }
+    private List<Stmt> statementList(int at)
+    {
+        int count = code[at];
+        List<Stmt> statements = new ArrayList<>(count);
+        for(int i = 1; i <= count; i++){
+            statements.add(statement(code[at+i]));
+        }
+        return statements;
+    }
+    private List<Stmt.Function> functionList(int at)
+    {
+        int count = code[at];
+        List<Stmt.Function> functions = new ArrayList<>(count);
+        for(int i = 1; i <= count; i++){
+            functions.add(function(code[at+i]));
+        }
+        return functions;
+    }
+    private List<Expr> expressionList(int at)
+    {
+        int count = code[at];
+        List<Expr> expressions = new ArrayList<>(count);
+        for(int i = 1; i <= count; i++){
+            expressions.add(expression(code[at+i]));
+        }
+        return expressions;
+    }
+
+    private void put(int value)
+    {
+        if(size == code.length){
+            int[] grown = new int[size*2];
+            System.arraycopy(code,0,grown,0,size);
+            code = grown;
+        }
+        code[size++] = value;
+    }
+
+    /*
+    writes the tree out in post order, children before their parent, so a parent can refer to its
+    children by offset as soon as it is written.
+     */
+    private final class Encoder implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
+        private final List<String> names = new ArrayList<>();
+        private final Map<String, Integer> nameIndex = new HashMap<>();
+        private final List<Object> constants = new ArrayList<>();
+        private final Map<Object, Integer> constantIndex = new HashMap<>();
+        private final Map<Stmt.Function, Integer> functions = new IdentityHashMap<>();
+
+        private int encode(Expr expr)
+        {
+            return expr == null ? -1 : expr.accept(this);
+        }
+        private int encode(Stmt stmt)
+        {
+            return stmt == null ? -1 : stmt.accept(this);
+        }
+        private void token(Token token)
+        {
+            Integer index = nameIndex.get(token.lexeme);
+            if(index == null){
+                index = names.size();
+                names.add(token.lexeme);
+                nameIndex.put(token.lexeme,index);
+            }
+            put(token.type.ordinal() | index << 8);
+            put(token.line);
+        }
+        private int constant(Object value)
+        {
+            Integer index = constantIndex.get(value);
+            if(index == null){
+                index = constants.size();
+                constants.add(value);
+                constantIndex.put(value,index);
+            }
+            return index;
+        }
+        private int list(int[] nodes)
+        {
+            int at = size;
+            put(nodes.length);
+            for(int node : nodes) put(node);
+            return at;
+        }
+        private int[] encodeAll(List<? extends Stmt> statements)
+        {
+            int[] nodes = new int[statements.size()];
+            for(int i = 0; i < nodes.length; i++) nodes[i] = encode(statements.get(i));
+            return nodes;
+        }
+        int statementList(List<? extends Stmt> statements)
+        {
+            return list(encodeAll(statements));
+        }
+
+        @Override
+        public Integer visitAssignExpr(Expr.Assign expr) {
+            int value = encode(expr.value);
+            int node = size;
+            put(ASSIGN);
+            token(expr.name);
+            put(value);
+            put(expr.depth);
+            return node;
+        }
+        @Override
+        public Integer visitBinaryExpr(Expr.Binary expr) {
+            int left = encode(expr.left);
+            int right = encode(expr.right);
+            int node = size;
+            put(BINARY);
+            put(left);
+            token(expr.operator);
+            put(right);
+            return node;
+        }
+        @Override
+        public Integer visitCallExpr(Expr.Call expr) {
+            int callee = encode(expr.callee);
+            int[] arguments = new int[expr.arguments.size()];
+            for(int i = 0; i < arguments.length; i++) arguments[i] = encode(expr.arguments.get(i));
+            int node = size;
+            put(CALL);
+            put(callee);
+            token(expr.paren);
+            put(expr.intrinsic == null ? -1 : expr.intrinsic.ordinal());
+            list(arguments);
+            return node;
+        }
+        @Override
+        public Integer visitGetExpr(Expr.Get expr) {
+            int object = encode(expr.Object);
+            int node = size;
+            put(GET);
+            put(object);
+            token(expr.name);
+            return node;
+        }
+        @Override
+        public Integer visitGroupingExpr(Expr.Grouping expr) {
+            int expression = encode(expr.expression);
+            int node = size;
+            put(GROUPING);
+            put(expression);
+            return node;
+        }
+        @Override
+        public Integer visitLiteralExpr(Expr.Literal expr) {
+            int node = size;
+            put(LITERAL);
+            put(constant(expr.value));
+            return node;
+        }
+        @Override
+        public Integer visitLogicalExpr(Expr.Logical expr) {
+            int left = encode(expr.left);
+            int right = encode(expr.right);
+            int node = size;
+            put(LOGICAL);
+            put(left);
+            token(expr.Operator);
+            put(right);
+            return node;
+        }
+        @Override
+        public Integer visitSetExpr(Expr.Set expr) {
+            int object = encode(expr.object);
+            int value = encode(expr.value);
+            int node = size;
+            put(SET);
+            put(object);
+            token(expr.name);
+            put(value);
+            return node;
+        }
+        @Override
+        public Integer visitSpawnExpr(Expr.Spawn expr) {
+            int call = encode(expr.call);
+            int node = size;
+            put(SPAWN);
+            token(expr.keyword);
+            put(call);
+            return node;
+        }
+        @Override
+        public Integer visitSuperExpr(Expr.Super expr) {
+            int node = size;
+            put(SUPER);
+            token(expr.keyword);
+            token(expr.method);
+            put(expr.depth);
+            return node;
+        }
+        @Override
+        public Integer visitThisExpr(Expr.This expr) {
+            int node = size;
+            put(THIS);
+            token(expr.keyword);
+            put(expr.depth);
+            return node;
+        }
+        @Override
+        public Integer visitUnaryExpr(Expr.Unary expr) {
+            int right = encode(expr.right);
+            int node = size;
+            put(UNARY);
+            token(expr.operator);
+            put(right);
+            return node;
+        }
+        @Override
+        public Integer visitVariableExpr(Expr.Variable expr) {
+            int node = size;
+            put(VARIABLE);
+            token(expr.name);
+            put(expr.depth);
+            return node;
+        }
+
+        @Override
+        public Integer visitBlockStmt(Stmt.Block stmt) {
+            int[] statements = encodeAll(stmt.statements);
+            int node = size;
+            put(BLOCK);
+            list(statements);
+            return node;
+        }
+        @Override
+        public Integer visitClassStmt(Stmt.Class stmt) {
+            int superclass = encode(stmt.superclass);
+            int[] methods = encodeAll(stmt.methods);
+            int node = size;
+            put(CLASS);
+            token(stmt.name);
+            put(superclass);
+            list(methods);
+            return node;
+        }
+        @Override
+        public Integer visitExpressionStmt(Stmt.Expression stmt) {
+            int expression = encode(stmt.expression);
+            int node = size;
+            put(EXPRESSION);
+            put(expression);
+            return node;
+        }
+        @Override
+        public Integer visitFunctionStmt(Stmt.Function stmt) {
+            Integer written = functions.get(stmt);
+            if(written != null) return written;
+            int[] body = encodeAll(stmt.body());
+            int node = size;
+            put(FUNCTION);
+            token(stmt.name);
+            put(stmt.params.size());
+            for(Token param : stmt.params) token(param);
+            list(body);
+            functions.put(stmt,node);
+            return node;
+        }
+        @Override
+        public Integer visitIfStmt(Stmt.If stmt) {
+            int condition = encode(stmt.condition);
+            int thenBranch = encode(stmt.thenBranch);
+            int elseBranch = encode(stmt.elseBranch);
+            int node = size;
+            put(IF);
+            put(condition);
+            put(thenBranch);
+            put(elseBranch);
+            return node;
+        }
+        @Override
+        public Integer visitImportStmt(Stmt.Import stmt) {
+            int node = size;
+            put(IMPORT);
+            token(stmt.name);
+            return node;
+        }
+        @Override
+        public Integer visitPrintStmt(Stmt.Print stmt) {
+            int expression = encode(stmt.expression);
+            int node = size;
+            put(PRINT);
+            put(expression);
+            return node;
+        }
+        @Override
+        public Integer visitReturnStmt(Stmt.Return stmt) {
+            int value = encode(stmt.value);
+            int node = size;
+            put(RETURN);
+            token(stmt.keyword);
+            put(value);
+            return node;
+        }
+        @Override
+        public Integer visitVarStmt(Stmt.Var stmt) {
+            int initializer = encode(stmt.initializer);
+            int node = size;
+            put(VAR);
+            token(stmt.name);
+            put(initializer);
+            return node;
+        }
+        @Override
+        public Integer visitWhileStmt(Stmt.While stmt) {
+            int condition = encode(stmt.condition);
+            int body = encode(stmt.body);
+            int node = size;
+            put(WHILE);
+            put(condition);
+            put(body);
+            return node;
+        }
+    }
+}
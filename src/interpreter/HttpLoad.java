@@ -0,0 +1,191 @@
+package interpreter;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/*
+the load test of http.load(port, path, connections, millis), see NativeLibraries.http().
+
+every connection is a platform thread of its own with one kept alive socket to the loopback address, it sends
+GET path, waits for the whole response and sends the next one until the time is up. the latency of every request
+is kept, what comes back is the number of requests, the requests per second over all connections and the median,
+99th percentile and slowest latency in milliseconds.
+a response other than 200 or a connection that fails counts as an error, the connection then opens a new socket.
+ */
+final class HttpLoad implements NativeObject {
+    private final long requests;
+    private final long errors;
+    private final double seconds;
+    private final double p50;
+    private final double p99;
+    private final double max;
+
+    private HttpLoad(long[] latencies, long errors, double seconds)
+    {
+        Arrays.sort(latencies);
+        this.requests = latencies.length;
+        this.errors = errors;
+        this.seconds = seconds;
+        this.p50 = percentile(latencies,0.50);
+        this.p99 = percentile(latencies,0.99);
+        this.max = latencies.length == 0 ? 0 : latencies[latencies.length-1]/1e6;
+    }
+
+    private static double percentile(long[] sorted, double fraction)
+    {
+        //in milliseconds, the nearest rank
+        if(sorted.length == 0) return 0;
+        int rank = (int)Math.ceil(fraction*sorted.length);
+        return sorted[Math.max(0,rank-1)]/1e6;
+    }
+
+    //what one connection measured
+    private static final class Client implements Runnable {
+        private final int port;
+        private final byte[] request;
+        private final long deadline;
+        private final ByteBuffer buffer = ByteBuffer.allocate(HttpServer.BUFFER_SIZE);
+        private long[] latencies = new long[1024];
+        private int count = 0;
+        private long errors = 0;
+
+        Client(int port, byte[] request, long deadline)
+        {
+            this.port = port;
+            this.request = request;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void run()
+        {
+            while(System.nanoTime() < deadline){
+                try(SocketChannel channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(),port))){
+                    channel.socket().setTcpNoDelay(true);
+                    long began;
+                    while((began = System.nanoTime()) < deadline){
+                        channel.write(ByteBuffer.wrap(request));
+                        if(response(channel)) record(System.nanoTime()-began);
+                        else errors++;
+                    }
+                }catch(IOException e){
+                    errors++;
+                }
+            }
+        }
+
+        private boolean response(SocketChannel channel) throws IOException
+        {
+            //reads one whole response, true when its status is 200
+            buffer.clear();
+            int head = -1;
+            while(head < 0){
+                if(channel.read(buffer) < 0 || !buffer.hasRemaining()) throw new IOException("bad response");
+                for(int i = 3; i < buffer.position() && head < 0; i++){
+                    if(buffer.get(i) == '\n' && buffer.get(i-1) == '\r' && buffer.get(i-2) == '\n' && buffer.get(i-3) == '\r') head = i+1;
+                }
+            }
+            byte[] bytes = new byte[head];
+            buffer.flip();
+            buffer.get(bytes);
+            String text = new String(bytes,StandardCharsets.ISO_8859_1);
+            int length = 0;
+            for(String line : text.split("\r\n")){
+                if(line.toLowerCase(Locale.ROOT).startsWith("content-length:")) length = contentLength(line.substring(15).trim());
+            }
+            long left = length-buffer.remaining();
+            while(left > 0){
+                buffer.clear();
+                int read = channel.read(buffer);
+                if(read < 0) throw new IOException("bad response");
+                left -= read;
+            }
+            return text.startsWith("HTTP/1.1 200");
+        }
+
+        private static int contentLength(String value) throws IOException
+        {
+            //a bad length is a bad response like any other, counted as an error
+            try{
+                int length = Integer.parseInt(value);
+                if(length >= 0) return length;
+            }catch(NumberFormatException ignored){
+                //falls through to the error below
+            }
+            throw new IOException("bad content length '"+value+"'");
+        }
+
+        private void record(long latency)
+        {
+            if(count == latencies.length) latencies = Arrays.copyOf(latencies,count*2);
+            latencies[count++] = latency;
+        }
+    }
+
+    static HttpLoad run(int port, String path, int connections, int millis)
+    {
+        if(connections < 1) throw new RuntimeError(null,"A load test needs at least one connection.");
+        if(path.isEmpty() || path.charAt(0) != '/' || path.indexOf(' ') >= 0 || path.indexOf('\n') >= 0){
+            throw new RuntimeError(null,"A path starts with '/' and has no spaces or line breaks.");
+        }
+        byte[] request = ("GET "+path+" HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        long began = System.nanoTime();
+        long deadline = began+millis*1_000_000L;
+        Client[] clients = new Client[connections];
+        Thread[] threads = new Thread[connections];
+        for(int i = 0; i < connections; i++){
+            clients[i] = new Client(port,request,deadline);
+            threads[i] = new Thread(clients[i],"jem-http-load-"+(i+1));
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+        try{
+            for(Thread thread : threads) thread.join();
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new RuntimeError(null,"Interrupted during the load test.");
+        }
+        double seconds = (System.nanoTime()-began)/1e9;
+
+        int total = 0;
+        long errors = 0;
+        for(Client client : clients){
+            total += client.count;
+            errors += client.errors;
+        }
+        long[] latencies = new long[total];
+        int at = 0;
+        for(Client client : clients){
+            System.arraycopy(client.latencies,0,latencies,at,client.count);
+            at += client.count;
+        }
+        return new HttpLoad(latencies,errors,seconds);
+    }
+
+    @Override
+    public Object get(Token name)
+    {
+        switch(name.lexeme){
+            case "requests": return (double)requests;
+            case "errors": return (double)errors;
+            case "perSecond": return requests/seconds;
+            case "p50": return p50;
+            case "p99": return p99;
+            case "max": return max;
+            default: throw new RuntimeError(name,"Load test results have no property '"+name.lexeme+"'.");
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format(Locale.ROOT,"%d requests in %.2f s, %.0f req/s, p50 %.3f ms, p99 %.3f ms, max %.3f ms, %d errors",
+                requests,seconds,requests/seconds,p50,p99,max,errors);
+    }
+}
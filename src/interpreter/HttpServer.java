@@ -0,0 +1,467 @@
+package interpreter;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+/*
+a small HTTP/1.1 server that answers with a function of the script, made by http.start(port, handler), see
+NativeLibraries.http(). the handler is called as handler(request, response) for every request.
+
+it listens on the loopback address only. every connection is a task of its own (see JemTask.execute()), on a
+virtual thread when the JVM has them, and calls the handler in an Interpreter forked for that connection, so
+handlers of different connections run at once and share only the globals, like spawned tasks do.
+connections are kept alive between requests unless the client asks otherwise, requests sent one after another
+without waiting (pipelining) are answered in order.
+reading requests and writing responses goes through direct buffers taken from a pool shared by all connections,
+a connection holds two of them while it is open and gives them back when it closes.
+
+the server only understands requests with a Content-Length body or none, chunked request bodies get a 501.
+an error in the handler, a stack overflow included, is reported like one in a task and answered with a 500, the
+connection stays open for the next request.
+ */
+final class HttpServer implements NativeObject {
+    //one buffer holds a whole request head, a longer one gets a 431
+    static final int BUFFER_SIZE = 16*1024;
+    //request bodies above this get a 413
+    private static final int MAX_BODY = 16*1024*1024;
+    //buffers kept for later connections, more than this are left to the garbage collector
+    private static final int POOLED = 1024;
+    private static final ConcurrentLinkedQueue<ByteBuffer> POOL = new ConcurrentLinkedQueue<>();
+
+    private final Interpreter interpreter;
+    private final JemCallable handler;
+    private final ServerSocketChannel listener;
+    //connections waiting for their next request, the ones stop() closes
+    private final Set<SocketChannel> idle = ConcurrentHashMap.newKeySet();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private volatile boolean stopping = false;
+
+    private HttpServer(Interpreter interpreter, JemCallable handler, ServerSocketChannel listener)
+    {
+        this.interpreter = interpreter;
+        this.handler = handler;
+        this.listener = listener;
+    }
+
+    static HttpServer start(Interpreter interpreter, int port, JemCallable handler)
+    {
+        NativeLibraries.checkArity("http.start",handler,2);
+        ServerSocketChannel listener;
+        try{
+            listener = ServerSocketChannel.open();
+            listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(),port),1024);
+        }catch(IOException e){
+            throw new RuntimeError(null,"Can't listen on port "+port+": "+e.getMessage());
+        }
+        JemTask.share(interpreter,handler);
+        HttpServer server = new HttpServer(interpreter,handler,listener);
+        Thread acceptor = new Thread(server::accept,"jem-http-"+server.port());
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return server;
+    }
+
+    int port()
+    {
+        return listener.socket().getLocalPort();
+    }
+
+    private void accept()
+    {
+        try{
+            while(!stopping){
+                SocketChannel channel = listener.accept();
+                JemTask.execute(() -> serve(channel));
+            }
+        }catch(IOException e){
+            //closed by stop(), or the listener failed and nothing more can be accepted
+        }finally{
+            stop();
+        }
+    }
+
+    void stop()
+    {
+        /*
+        closing a channel ends a read blocked on it, so connections waiting for their next request end as well.
+        a connection in the middle of a request still gets its response, then it closes, see serve().
+         */
+        stopping = true;
+        try{
+            listener.close();
+        }catch(IOException ignored){
+            //nothing is accepted any more either way
+        }
+        for(SocketChannel channel : idle) close(channel);
+        stopped.countDown();
+    }
+
+    void await()
+    {
+        try{
+            stopped.await();
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new RuntimeError(null,"Interrupted while serving.");
+        }
+    }
+
+    private static ByteBuffer acquire()
+    {
+        ByteBuffer buffer = POOL.poll();
+        return buffer != null ? buffer.clear() : ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    private static void release(ByteBuffer buffer)
+    {
+        //the size of the pool is only roughly kept, a few buffers more or less don't matter
+        if(POOL.size() < POOLED) POOL.add(buffer);
+    }
+
+    private static void close(SocketChannel channel)
+    {
+        try{
+            channel.close();
+        }catch(IOException ignored){
+            //the connection is gone either way
+        }
+    }
+
+    //a request that can't be answered by the handler, the status it gets before the connection is closed
+    private static final class Refused extends Exception {
+        final int status;
+        Refused(int status, String message)
+        {
+            super(message,null,false,false);
+            this.status = status;
+        }
+    }
+
+    private void serve(SocketChannel channel)
+    {
+        ByteBuffer in = acquire();
+        ByteBuffer out = acquire();
+        Interpreter worker = interpreter.fork();
+        try{
+            for(;;){
+                Request request;
+                idle.add(channel);
+                try{
+                    //checked after joining idle, so a stop() from now on closes this channel
+                    if(stopping) return;
+                    request = read(channel,in);
+                }catch(Refused refused){
+                    Response response = new Response();
+                    response.status = refused.status;
+                    response.body.append(refused.getMessage());
+                    write(channel,out,response,false);
+                    return;
+                }finally{
+                    idle.remove(channel);
+                }
+                if(request == null) return;
+                Response response = new Response();
+                try{
+                    handler.call2(worker,request,response);
+                }catch(RuntimeError error){
+                    //like an error in a task, see JemTask
+                    failed(error);
+                    response = failure();
+                }catch(StackOverflowError error){
+                    failed(new RuntimeError(null,"Stack overflow in the request handler."));
+                    response = failure();
+                }catch(RuntimeException | Error error){
+                    //anything else ends this request, not the thread serving the connection or the other requests
+                    failed(new RuntimeError(null,"The request handler failed: "+error));
+                    response = failure();
+                }
+                boolean keepAlive = request.keepAlive && !stopping;
+                write(channel,out,response,keepAlive);
+                if(!keepAlive) return;
+            }
+        }catch(IOException e){
+            //the client went away or the server was stopped while the connection waited, nothing to answer
+        }finally{
+            close(channel);
+            release(in);
+            release(out);
+            worker.retire();
+        }
+    }
+
+    private void failed(RuntimeError error)
+    {
+        //nothing is reported once the run the server belongs to is over, see JemTask.Group
+        if(!interpreter.tasks.ended()) interpreter.reporter.runtimeError(error);
+    }
+
+    private static Response failure()
+    {
+        Response response = new Response();
+        response.status = 500;
+        response.body.append("Internal Server Error");
+        return response;
+    }
+
+    private static Request read(SocketChannel channel, ByteBuffer in) throws IOException, Refused
+    {
+        /*
+        the next request from the connection, null when the client closed it between requests.
+        in is kept ready for writing, what it holds past this request is the start of the next one.
+         */
+        int head;
+        while((head = endOfHead(in)) < 0){
+            if(!in.hasRemaining()) throw new Refused(431,"Request Header Fields Too Large");
+            if(channel.read(in) < 0){
+                if(in.position() == 0) return null;
+                throw new IOException("the connection ended in the middle of a request");
+            }
+        }
+        ByteBuffer received = in.duplicate();
+        received.flip();
+        byte[] bytes = new byte[head];
+        received.get(bytes);
+        Request request = Request.parse(new String(bytes,StandardCharsets.ISO_8859_1));
+        int consumed = head+4;
+
+        byte[] body = new byte[request.contentLength];
+        int copied = Math.min(body.length,in.position()-consumed);
+        received.position(consumed);
+        received.get(body,0,copied);
+        consumed += copied;
+        in.flip().position(consumed);
+        in.compact();
+        while(copied < body.length){
+            //the rest of a body that didn't fit goes through the buffer, which holds nothing else now
+            in.clear().limit(Math.min(in.capacity(),body.length-copied));
+            if(channel.read(in) < 0) throw new IOException("the connection ended in the middle of a body");
+            in.flip();
+            int count = in.remaining();
+            in.get(body,copied,count);
+            copied += count;
+            in.clear();
+        }
+        request.body = new String(body,StandardCharsets.UTF_8);
+        return request;
+    }
+
+    private static int endOfHead(ByteBuffer in)
+    {
+        //where the blank line after the headers starts, -1 while it hasn't arrived
+        for(int i = 3; i < in.position(); i++){
+            if(in.get(i) == '\n' && in.get(i-1) == '\r' && in.get(i-2) == '\n' && in.get(i-3) == '\r') return i-3;
+        }
+        return -1;
+    }
+
+    private static void write(SocketChannel channel, ByteBuffer out, Response response, boolean keepAlive) throws IOException
+    {
+        byte[] body = response.body.toString().getBytes(StandardCharsets.UTF_8);
+        StringBuilder head = new StringBuilder(128);
+        head.append("HTTP/1.1 ").append(response.status).append(' ').append(reason(response.status)).append("\r\n");
+        if(!response.headers.containsKey("content-type")) head.append("Content-Type: text/plain; charset=utf-8\r\n");
+        for(Map.Entry<String,String[]> header : response.headers.entrySet()){
+            head.append(header.getValue()[0]).append(": ").append(header.getValue()[1]).append("\r\n");
+        }
+        head.append("Content-Length: ").append(body.length).append("\r\n");
+        head.append(keepAlive ? "Connection: keep-alive\r\n" : "Connection: close\r\n").append("\r\n");
+
+        out.clear();
+        put(channel,out,head.toString().getBytes(StandardCharsets.ISO_8859_1));
+        put(channel,out,body);
+        flush(channel,out);
+    }
+
+    private static void put(SocketChannel channel, ByteBuffer out, byte[] bytes) throws IOException
+    {
+        //a small response leaves in one write, a bigger one in as many as it takes to fill the buffer
+        int offset = 0;
+        while(offset < bytes.length){
+            if(!out.hasRemaining()) flush(channel,out);
+            int count = Math.min(out.remaining(),bytes.length-offset);
+            out.put(bytes,offset,count);
+            offset += count;
+        }
+    }
+
+    private static void flush(SocketChannel channel, ByteBuffer out) throws IOException
+    {
+        out.flip();
+        while(out.hasRemaining()) channel.write(out);
+        out.clear();
+    }
+
+    private static String reason(int status)
+    {
+        switch(status){
+            case 200: return "OK";
+            case 201: return "Created";
+            case 204: return "No Content";
+            case 301: return "Moved Permanently";
+            case 302: return "Found";
+            case 304: return "Not Modified";
+            case 400: return "Bad Request";
+            case 403: return "Forbidden";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 413: return "Payload Too Large";
+            case 431: return "Request Header Fields Too Large";
+            case 500: return "Internal Server Error";
+            case 501: return "Not Implemented";
+            case 503: return "Service Unavailable";
+            default: return "";
+        }
+    }
+
+    //what the handler gets first: method, path, query, body and header(name)
+    static final class Request implements NativeObject {
+        private String method;
+        private String path;
+        //what follows the ? of the target, nil when there is none
+        private String query;
+        private final Map<String,String> headers = new HashMap<>();
+        private int contentLength = 0;
+        private boolean keepAlive;
+        private String body;
+
+        static Request parse(String head) throws Refused
+        {
+            String[] lines = head.split("\r\n");
+            String[] start = lines[0].split(" ");
+            if(start.length != 3 || !start[2].startsWith("HTTP/1.")) throw new Refused(400,"Bad Request");
+            Request request = new Request();
+            request.method = start[0];
+            int question = start[1].indexOf('?');
+            request.path = question < 0 ? start[1] : start[1].substring(0,question);
+            request.query = question < 0 ? null : start[1].substring(question+1);
+            for(int i = 1; i < lines.length; i++){
+                int colon = lines[i].indexOf(':');
+                if(colon <= 0) throw new Refused(400,"Bad Request");
+                request.headers.put(lines[i].substring(0,colon).trim().toLowerCase(Locale.ROOT),lines[i].substring(colon+1).trim());
+            }
+            if(request.headers.containsKey("transfer-encoding")) throw new Refused(501,"Not Implemented");
+            String length = request.headers.get("content-length");
+            if(length != null){
+                try{
+                    request.contentLength = Integer.parseInt(length);
+                }catch(NumberFormatException e){
+                    throw new Refused(400,"Bad Request");
+                }
+                if(request.contentLength < 0) throw new Refused(400,"Bad Request");
+                if(request.contentLength > MAX_BODY) throw new Refused(413,"Payload Too Large");
+            }
+            //1.1 keeps the connection unless told to close it, 1.0 only when asked to keep it
+            String connection = request.headers.getOrDefault("connection","").toLowerCase(Locale.ROOT);
+            request.keepAlive = start[2].equals("HTTP/1.1") ? !connection.equals("close") : connection.equals("keep-alive");
+            return request;
+        }
+
+        @Override
+        public Object get(Token name)
+        {
+            switch(name.lexeme){
+                case "method": return method;
+                case "path": return path;
+                case "query": return query;
+                case "body": return body;
+                case "header": return new NativeLibraries.Native("request.header",1,(interpreter,args) -> {
+                    if(!(args.get(0) instanceof String)) throw new RuntimeError(null,"Argument 1 must be a string.");
+                    return headers.get(((String)args.get(0)).toLowerCase(Locale.ROOT));
+                });
+                default: throw new RuntimeError(name,"Requests have no property '"+name.lexeme+"'.");
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return "<request "+method+" "+path+">";
+        }
+    }
+
+    //what the handler gets second: status(code), header(name, value) and write(text), sent once the handler returns
+    static final class Response implements NativeObject {
+        private int status = 200;
+        //lower case name to the name as given and the value
+        private final Map<String,String[]> headers = new LinkedHashMap<>();
+        private final StringBuilder body = new StringBuilder();
+
+        @Override
+        public Object get(Token name)
+        {
+            switch(name.lexeme){
+                case "status": return new NativeLibraries.Native("response.status",1,(interpreter,args) -> {
+                    Object code = args.get(0);
+                    if(!(code instanceof Double) || (double)code < 100 || (double)code > 999 || (double)code != Math.rint((double)code)){
+                        throw new RuntimeError(null,"A status is a whole number from 100 to 999.");
+                    }
+                    status = (int)(double)code;
+                    return null;
+                });
+                case "header": return new NativeLibraries.Native("response.header",2,(interpreter,args) -> {
+                    if(!(args.get(0) instanceof String) || !(args.get(1) instanceof String)){
+                        throw new RuntimeError(null,"A header name and value must be strings.");
+                    }
+                    String header = (String)args.get(0);
+                    String value = (String)args.get(1);
+                    if(header.indexOf('\r') >= 0 || header.indexOf('\n') >= 0 || value.indexOf('\r') >= 0 || value.indexOf('\n') >= 0){
+                        throw new RuntimeError(null,"A header can't contain a line break.");
+                    }
+                    String key = header.toLowerCase(Locale.ROOT);
+                    if(key.equals("content-length") || key.equals("connection")){
+                        throw new RuntimeError(null,"The server sets the '"+header+"' header itself.");
+                    }
+                    headers.put(key,new String[]{header,value});
+                    return null;
+                });
+                case "write": return new NativeLibraries.Native("response.write",1,(interpreter,args) -> {
+                    body.append(interpreter.stringify(args.get(0)));
+                    return null;
+                });
+                default: throw new RuntimeError(name,"Responses have no property '"+name.lexeme+"'.");
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return "<response>";
+        }
+    }
+
+    @Override
+    public Object get(Token name)
+    {
+        switch(name.lexeme){
+            case "port": return (double)port();
+            case "stop": return new NativeLibraries.Native("server.stop",0,(interpreter,args) -> {
+                stop();
+                return null;
+            });
+            case "await": return new NativeLibraries.Native("server.await",0,(interpreter,args) -> {
+                await();
+                return null;
+            });
+            default: throw new RuntimeError(name,"Servers have no property '"+name.lexeme+"'.");
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "<http server on port "+port()+">";
+    }
+}
@@ -1,145 +1,113 @@
 package interpreter;
 
+import java.io.PrintStream;
+import java.lang.ref.WeakReference;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 public class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Void> {
     //unlike Expr statements produce no values so return type is Void
-    final Environment globals = new Environment();
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    /*
+    the globals of the code running right now. every module has globals of its own,
+    a function switches to the globals of the module it was declared in while it runs, see JemFunction.
+     */
+    Environment globals = new Environment();
     private Environment environment = globals;
-    Interpreter(){
-        //defines a varible named "clock",
-        //it's value is a java anonymous class that implements LoxCallable
-        //If we wanted to add other native functions—reading input from the user,
-        // working with files, etc.—we could add them each as their own anonymous class that implements LoxCallable.
-        globals.define("clock", new JemCallable() {
-            @Override
-            public int arity() {
-                return 0;
-            }
-
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                return (double)System.currentTimeMillis()/1000.0;
-            }
-            @Override
-            public String toString(){
-                return "<natice fn>";
-            }
-        });
-        //native sine function
-        //fixing required if expressions are passed
-        //expressions fixed need some tweaking
-        globals.define("sin", new JemCallable() {
-            @Override
-            public int arity() {
-                return 1;
-            }
-
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                //add evaluate expression to compute expression given as argument
-                return (double)Math.sin(Math.toRadians((double)arguments.get(0)));
-            }
-            @Override
-            public String toString(){
-                return "<natice fn>";
-            }
-        });
-        //native cos function
-        //fixing required if expressions are passed
-        //expressions fixed need some tweaking
-        globals.define("cos", new JemCallable() {
-            @Override
-            public int arity() {
-                return 1;
-            }
-
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                //add evaluate expression to compute expression given as argument
-                return (double)Math.cos(Math.toRadians((double)arguments.get(0)));
-            }
-            @Override
-            public String toString(){
-                return "<natice fn>";
-            }
-        });
-        //native square root functions
-        //fixing required if expressions are passed
-        //expressions fixed need some tweaking
-        globals.define("sqrt", new JemCallable() {
-            @Override
-            public int arity() {
-                return 1;
-            }
+    //imported modules, each loaded once, see visitImportStmt(). only set up once something is imported
+    private Modules modules;
+    //where the running script is, modules are looked for there first
+    private Path scriptDirectory;
+    //what followed the script on the command line, see io.argument()
+    private List<String> arguments = Collections.emptyList();
+    //where this run prints to and reports its errors, see Reporter
+    final Reporter reporter;
+    /*
+    environments of calls and blocks nothing closed over, kept for reuse.
+    they are handed out and returned in stack order so the array is used like a stack.
+     */
+    private final Environment[] pool = new Environment[64];
+    private int pooled = 0;
+    //set for a math intrinsic once a global of the same name is defined or assigned, see define(). shared with spawned tasks
+    private final boolean[] shadowed;
+    //call sites are only kept here when call statistics were asked for
+    private List<CallSite> callSites = null;
+    //timers and sockets waiting for the script, null until it uses the events library
+    private EventLoop events = null;
+    //made by fork() for a task or a parallel worker, which run on threads the event loop isn't on
+    private final boolean forked;
+    //the limits of the run, null when it has none. shared with forks, see Budget
+    private final Budget budget;
+    //steps and bytes taken from the budget and not spent yet, so high without a budget that they never run out
+    private long steps;
+    private long bytes;
+    //the tasks of the run, shared with forks, see JemTask.Group
+    final JemTask.Group tasks;
+    Interpreter(Reporter reporter){
+        this.reporter = reporter;
+        this.shadowed = new boolean[MathIntrinsic.values().length];
+        this.forked = false;
+        this.tasks = new JemTask.Group();
+        this.budget = Budget.fromProperties();
+        this.steps = budget == null ? Long.MAX_VALUE : 0;
+        this.bytes = budget == null ? Long.MAX_VALUE : 0;
+        defineNatives(globals);
+    }
+    //defines a varible named "clock",
+    //it's value is a java anonymous class that implements LoxCallable
+    //If we wanted to add other native functions—reading input from the user,
+    // working with files, etc.—we could add them each as their own anonymous class that implements LoxCallable.
+    //one instance each, shared by the globals of every module
+    static final JemCallable CLOCK = new JemCallable() {
+        @Override
+        public int arity() {
+            return 0;
+        }
 
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                //add evaluate expression to compute expression given as argument
-                return (double)Math.sqrt((double)arguments.get(0));
-            }
-            @Override
-            public String toString(){
-                return "<natice fn>";
-            }
-        });
-        //native max function
-        //fixing required if expressions are passed
-        //expressions fixed need some tweaking
-        globals.define("Max", new JemCallable() {
-            @Override
-            public int arity() {
-                return 2;
-            }
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                //add evaluate expression to compute expression given as argument
-                return (double)Math.max((double)arguments.get(0),(double)arguments.get(1));
-            }
-            @Override
-            public String toString(){
-                return "<natice fn>";
-            }
-        });
-        //native min function
-        //fixing required if expressions are passed
-        //expressions fixed need some tweaking
-        globals.define("Min", new JemCallable() {
-            @Override
-            public int arity() {
-                return 2;
-            }
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                //add evaluate expression to compute expression given as argument
-                return (double)Math.min((double)arguments.get(0),(double)arguments.get(1));
-            }
-            @Override
-            public String toString(){
-                return "<natice fn>";
-            }
-        });
-        //native println function
-        globals.define("println", new JemCallable() {
-            @Override
-            public int arity() {
-                return 0;
-            }
-            @Override
-            public Void call(Interpreter interpreter, List<Object> arguments) {
-                //add evaluate expression to compute expression given as argument
-                System.out.print("\n");
-                return null;
-            }
-            @Override
-            public String toString(){
-                return "<natice fn>";
-            }
-        });
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            return call0(interpreter);
+        }
+        @Override
+        public Object call0(Interpreter interpreter) {
+            return (double)System.currentTimeMillis()/1000.0;
+        }
+        @Override
+        public String toString(){
+            return "<natice fn>";
+        }
+    };
+    //native println function
+    static final JemCallable PRINTLN = new JemCallable() {
+        @Override
+        public int arity() {
+            return 0;
+        }
+        @Override
+        public Void call(Interpreter interpreter, List<Object> arguments) {
+            return call0(interpreter);
+        }
+        @Override
+        public Void call0(Interpreter interpreter) {
+            interpreter.reporter.out.print("\n");
+            return null;
+        }
+        @Override
+        public String toString(){
+            return "<natice fn>";
+        }
+    };
+    private void defineNatives(Environment globals)
+    {
+        globals.define("clock", CLOCK);
+        //the math functions, sin, cos, sqrt, Max, Min and the rest
+        for(MathIntrinsic intrinsic : MathIntrinsic.values()){
+            globals.define(intrinsic.jemName,intrinsic);
+        }
+        globals.define("println", PRINTLN);
     }
     void interpret(List<Stmt> statements)
     {
@@ -153,11 +121,25 @@ public class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Void> {
             {
                 execute(statement);
             }
+            //then the timers and sockets the script left waiting, see EventLoop
+            if(events != null) events.run();
         }
         catch(RuntimeError error)
         {
-            Jem.runtimeError(error);
+            reporter.runtimeError(error);
         }
+        finally
+        {
+            if(events != null) events.close();
+            events = null;
+        }
+    }
+    EventLoop events()
+    {
+        //the loop of this run, made the first time the script uses the events library
+        if(forked) throw new RuntimeError(null,"Events can only be used by the main script, not by a task.");
+        if(events == null) events = new EventLoop(this);
+        return events;
     }
     //Evaluating literals
     @Override
@@ -197,25 +179,66 @@ public class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Void> {
         return value;
     }
     @Override
+    public Object visitSpawnExpr(Expr.Spawn expr)
+    {
+        //the callee and the arguments are evaluated here, only the call itself runs on the task
+        Expr.Call call = expr.call;
+        Object callee = evaluate(call.callee);
+        Object[] arguments = new Object[call.arguments.size()];
+        for(int i = 0; i < arguments.length; i++){
+            arguments[i] = evaluate(call.arguments.get(i));
+        }
+        return JemTask.spawn(this,expr.keyword,callable(call,callee),arguments);
+    }
+    @Override
     public Object visitSuperExpr(Expr.Super expr)
     {
-        int distance = locals.get(expr);
-        JemClass superclass = (JemClass)environment.getAt(distance,"super");
-
-        JemInstance object = (JemInstance)environment.getAt(distance-1,"this");
-
+        Environment receiverScope = superReceiverScope(expr);
+        JemInstance object = (JemInstance)receiverScope.getAt(0,"this");
+        return superMethod(expr,receiverScope).bind(this,object);
+    }
+    private Environment superReceiverScope(Expr.Super expr)
+    {
+        //"this" lives one scope inside the one that holds "super"
+        return environment.ancestor(expr.depth-1);
+    }
+    static final class SuperTarget extends WeakReference<JemClass> {
+        /*
+        the superclass a super expression ran with last and the method it found there. a superclass never changes
+        its methods, so as long as the expression runs with the same one it resolves to the same method.
+        the tree is shared by every run of a Program, so both are held weakly and the node keeps nothing of a run
+        alive. the method can't go before the superclass does, the superclass holds it (see JemClass.findMethod()).
+        runs of different classes just replace the target, each of them misses once.
+         */
+        private final WeakReference<JemFunction> method;
+        SuperTarget(JemClass superclass, JemFunction method)
+        {
+            super(superclass);
+            this.method = new WeakReference<>(method);
+        }
+    }
+    private JemFunction superMethod(Expr.Super expr, Environment receiverScope)
+    {
+        Environment scope = receiverScope.enclosing;
+        JemClass superclass = (JemClass)scope.getAt(0,"super");
+        SuperTarget target = expr.target;
+        if(target != null && target.get() == superclass){
+            JemFunction method = target.method.get();
+            if(method != null) return method;
+        }
         JemFunction method = superclass.findMethod(expr.method.lexeme);
         if(method == null)
         {
             throw new RuntimeError(expr.method,
                     "Undefined property '"+expr.method.lexeme+"'.");
         }
-        return method.bind(object);
+        expr.target = new SuperTarget(superclass,method);
+        return method;
     }
     @Override
     public Object visitThisExpr(Expr.This expr)
     {
-        return lookUpVariable(expr.keyword,expr);
+        return lookUpVariable(expr.keyword,expr.depth);
     }
     //Evaluating Unary expressions
     @Override
@@ -243,11 +266,10 @@ public class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Void> {
     @Override
     public Object visitVariableExpr(Expr.Variable expr)
     {
-        return lookUpVariable(expr.name,expr);
+        return lookUpVariable(expr.name,expr.depth);
     }
-    private Object lookUpVariable(Token name,Expr expr){
-        Integer distance = locals.get(expr);
-        if(distance !=null)
+    private Object lookUpVariable(Token name,int distance){
+        if(distance >= 0)
         {
             return environment.getAt(distance,name.lexeme);
 
@@ -267,7 +289,7 @@ public class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Void> {
 
         throw new RuntimeError(operator , "Operands must be numbers.");
     }
-    private boolean isTruthy(Object object)
+    static boolean isTruthy(Object object)
     {
         /*
         false and nil are falsey
@@ -285,9 +307,10 @@ public class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Void> {
         return a.equals(b);
     }
 
-    private String stringify(Object object) // helper method
+    String stringify(Object object) // helper method
     {
         if(object == null) return "nil";
+        if(object instanceof JemArray) return ((JemArray)object).stringify(this);
 
         if(object instanceof Double) {
             String text = object.toString();
@@ -318,9 +341,6 @@ public class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Void> {
         //statement analog to evaluate
         stmt.accept(this);
     }
-    void resolve(Expr expr, int depth){
-        locals.put(expr,depth);
-    }
     void executeBlock(List<Stmt> statements, Environment environment){
         //it executes a list of statements in the context of a given environment.
         //up until now, the environment field in the interpreter always pointed to the same environment - global one
@@ -341,10 +361,63 @@ public class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Void> {
             this.environment = previous;
         }
     }
+    void tick(Token where)
+    {
+        //one step of the run, a turn of a loop or a call. only asks the budget once the steps taken from it are spent
+        if(--steps < 0) steps = refill(where)-1;
+    }
+    private long refill(Token where)
+    {
+        //a fork without a budget still comes here once per chunk, to stop once its run has ended, see JemTask.Group
+        if(tasks.ended()) throw new RuntimeError(where,"The run this task belongs to has ended.");
+        return budget == null ? Budget.STEPS : budget.steps(where);
+    }
+    void allocate(Token where, long size)
+    {
+        //charges an allocation to the budget of the run, see Budget
+        if((bytes -= size) < 0) reserve(where);
+    }
+    private void reserve(Token where)
+    {
+        while(bytes < 0) bytes += budget.bytes(where);
+    }
+    String allocate(String text)
+    {
+        //charges a string a native made, nil passes through
+        if(text != null) allocate(null,Budget.STRING_BYTES+2L*text.length());
+        return text;
+    }
+    Environment acquire(Environment enclosing)
+    {
+        if(pooled == 0){
+            //only new environments are charged, recycled ones were paid for already
+            allocate(null,Budget.ENVIRONMENT_BYTES);
+            return new Environment(enclosing);
+        }
+        Environment recycled = pool[--pooled];
+        pool[pooled] = null;
+        recycled.reset(enclosing);
+        return recycled;
+    }
+    void release(Environment environment)
+    {
+        /*
+        once a call or block is done its environment is garbage, unless a function or class created inside it
+        closed over it. those are left alone, anything else goes back in the pool.
+         */
+        if(environment.isCaptured() || pooled == pool.length) return;
+        environment.reset(null);
+        pool[pooled++] = environment;
+    }
     @Override
     public Void visitBlockStmt(Stmt.Block stmt){
         // to execute a block we create a new environment for the block's scope and pass it off to another method
-        executeBlock(stmt.statements,new Environment(environment));
+        Environment block = acquire(environment);
+        try{
+            executeBlock(stmt.statements,block);
+        }finally {
+            release(block);
+        }
         return null;
     }
     @Override
@@ -359,20 +432,24 @@ public class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Void> {
             }
         }
         //declare the class's name in the current environment
-        environment.define(stmt.name.lexeme , null);
+        define(stmt.name.lexeme , null);
+        //the methods close over the current environment
+        environment.capture();
         if(stmt.superclass !=null)
         {
+            allocate(stmt.name,Budget.ENVIRONMENT_BYTES);
             environment = new Environment(environment);
             environment.define("super",superclass);
         }
         Map<String, JemFunction> methods = new HashMap<>();
         for( Stmt.Function method : stmt.methods){
+            allocate(method.name,Budget.FUNCTION_BYTES);
             JemFunction function = new JemFunction(method, environment,
                     method.name.lexeme.equals("init"));
             methods.put(method.name.lexeme,function);
         }
         //then we turn class into syntax node of loxClass
-        JemClass klass = new JemClass(stmt.name.lexeme,(JemClass)superclass,methods);
+        JemClass klass = new JemClass(stmt,stmt.name.lexeme,(JemClass)superclass,methods);
         //we circle back and store object in the variable we declared.
         if(superclass!=null)
         {
@@ -389,8 +466,10 @@ public class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Void> {
     }
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt){
+        environment.capture();
+        allocate(stmt.name,Budget.FUNCTION_BYTES);
         JemFunction function = new JemFunction(stmt,environment,false);
-        environment.define(stmt.name.lexeme,function);
+        define(stmt.name.lexeme,function);
         return null;
     }
     @Override
@@ -406,10 +485,94 @@ public class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Void> {
         return null;
     }
     @Override
+    public Void visitImportStmt(Stmt.Import stmt)
+    {
+        define(stmt.name.lexeme,modules().load(this,stmt.name));
+        return null;
+    }
+    Modules modules()
+    {
+        if(modules == null) modules = new Modules(scriptDirectory);
+        return modules;
+    }
+    void setScriptDirectory(Path directory)
+    {
+        scriptDirectory = directory;
+    }
+    Interpreter fork()
+    {
+        //the interpreter a spawned task or a chunk of a parallel operation runs in, see JemTask and Parallel
+        return new Interpreter(this);
+    }
+    void retire()
+    {
+        //called once a fork is done, gives back to the budget what it took and didn't spend
+        if(budget == null) return;
+        budget.giveBack(steps,bytes);
+        steps = 0;
+        bytes = 0;
+    }
+    private Interpreter(Interpreter parent)
+    {
+        /*
+        a fork starts out in the globals the spawning code is in and shares its modules, arguments and output.
+        the environment, the pool of environments and everything about the calls it makes are its own.
+         */
+        this.reporter = parent.reporter;
+        this.globals = parent.globals;
+        this.environment = globals;
+        this.modules = parent.modules();
+        this.scriptDirectory = parent.scriptDirectory;
+        this.arguments = parent.arguments;
+        this.shadowed = parent.shadowed;
+        this.forked = true;
+        this.tasks = parent.tasks;
+        this.budget = parent.budget;
+        this.steps = budget == null ? Budget.STEPS : 0;
+        this.bytes = budget == null ? Long.MAX_VALUE : 0;
+    }
+    void setArguments(List<String> arguments)
+    {
+        this.arguments = arguments;
+    }
+    List<String> arguments()
+    {
+        return arguments;
+    }
+    void restoreGlobals(Environment restored)
+    {
+        //runs what follows in globals that came back from a snapshot, see Snapshot
+        globals = restored;
+        environment = restored;
+        for(Map.Entry<String, Object> global : restored.values().entrySet()){
+            MathIntrinsic intrinsic = MathIntrinsic.named(global.getKey());
+            if(intrinsic != null && global.getValue() != intrinsic) shadowed[intrinsic.ordinal()] = true;
+        }
+    }
+    JemModule runModule(String name, List<Stmt> statements)
+    {
+        //a module's top level runs in globals of its own, with the natives but nothing of the importer
+        Environment moduleGlobals = new Environment();
+        defineNatives(moduleGlobals);
+        Environment previousGlobals = globals;
+        Environment previous = environment;
+        try{
+            globals = moduleGlobals;
+            environment = moduleGlobals;
+            for(Stmt statement : statements){
+                execute(statement);
+            }
+        }finally {
+            globals = previousGlobals;
+            environment = previous;
+        }
+        return new JemModule(name,moduleGlobals);
+    }
+    @Override
     public Void visitPrintStmt(Stmt.Print stmt)
     {
         Object value = evaluate(stmt.expression);
-        System.out.print(stringify(value));
+        reporter.out.print(stringify(value));
         return null;
     }
     @Override
@@ -429,15 +592,28 @@ public class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Void> {
         {
             value = evaluate(stmt.initializer);
         }
-        environment.define(stmt.name.lexeme,value);
+        define(stmt.name.lexeme,value);
         return null;
     }
+    private void define(String name, Object value)
+    {
+        environment.define(name,value);
+        if(environment == globals) noteGlobalWrite(name);
+    }
+    private void noteGlobalWrite(String name)
+    {
+        //calls the resolver tied to a math intrinsic stop taking the direct path once the name means something else
+        MathIntrinsic intrinsic = MathIntrinsic.named(name);
+        if(intrinsic != null) shadowed[intrinsic.ordinal()] = true;
+    }
     @Override
     public Void visitWhileStmt(Stmt.While stmt)
     {
         while(isTruthy(evaluate(stmt.condition)))
         {
             execute(stmt.body);
+            //the back edge, where a loop that never ends is stopped, see Budget
+            tick(null);
         }
         return null;
     }
@@ -446,13 +622,13 @@ public class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Void> {
     {
         Object value = evaluate(expr.value);
 
-        Integer distance = locals.get(expr);
-        if (distance !=null)
+        if (expr.depth >= 0)
         {
-            environment.assignAt(distance, expr.name, value);
+            environment.assignAt(expr.depth, expr.name, value);
         }
         else {
             globals.assign(expr.name, value);
+            noteGlobalWrite(expr.name.lexeme);
         }
         return value;
     }
@@ -498,6 +674,7 @@ public class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Void> {
                 }
                 if(left instanceof String && right instanceof String)
                 {
+                    allocate(expr.operator,Budget.STRING_BYTES+2L*(((String)left).length()+((String)right).length()));
                     return (String)left+(String)right;
                 }
                 throw new RuntimeError(expr.operator ,
@@ -516,14 +693,154 @@ public class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Void> {
     }
     @Override
     public Object visitCallExpr(Expr.Call expr){
+        tick(expr.paren);
+        if(expr.callee instanceof Expr.Super) return callSuper(expr,(Expr.Super)expr.callee);
+        MathIntrinsic intrinsic = expr.intrinsic;
+        if(intrinsic != null && !shadowed[intrinsic.ordinal()]) return callIntrinsic(expr,intrinsic);
+
         Object callee = evaluate(expr.callee); //evalute the expression for the callee, typically its an identifier
 
-        List<Object> arguments = new ArrayList<>();
-        for(Expr argument : expr.arguments){
-            arguments.add(evaluate(argument)); //then evaluate each argument expressions in order to store the resulting value
+        /*
+        then evaluate each argument expressions in order and perform the call.
+        up to three arguments are passed straight to the matching fixed arity entry point,
+        only calls with more arguments than that need an array.
+         */
+        List<Expr> arguments = expr.arguments;
+        try{
+            return dispatch(expr,callee,arguments);
+        }catch(RuntimeError error){
+            //natives don't know where they were called from, so they leave the token for us to fill in
+            if(error.token != null) throw error;
+            throw new RuntimeError(expr.paren,error.getMessage());
         }
-        //Once we've got the callee and the arguments ready, all that remains is to perform the call
-        // we do that by casting the callee to a LoxCallable and then invoking call() method on it
+    }
+    private Object dispatch(Expr.Call expr, Object callee, List<Expr> arguments)
+    {
+        //a callee made from a declaration the site has cached is called straight, see CallSite
+        CallSite site = expr.site;
+        if(site == null) site = newCallSite(expr);
+        if(callee instanceof JemFunction){
+            if(site.cached(((JemFunction)callee).declaration)){
+                if(callSites != null) site.hits++;
+                return invoke((JemFunction)callee,arguments);
+            }
+        }else if(callee instanceof JemClass){
+            JemClass klass = (JemClass)callee;
+            if(klass.declaration != null && klass.arity() == arguments.size() && site.cached(klass.declaration)){
+                if(callSites != null) site.hits++;
+                return construct(klass,arguments);
+            }
+        }
+        if(callSites != null) site.misses++;
+        switch(arguments.size()){
+            case 0:
+                return callable(expr,callee).call0(this);
+            case 1: {
+                Object a = evaluate(arguments.get(0));
+                return callable(expr,callee).call1(this,a);
+            }
+            case 2: {
+                Object a = evaluate(arguments.get(0));
+                Object b = evaluate(arguments.get(1));
+                return callable(expr,callee).call2(this,a,b);
+            }
+            case 3: {
+                Object a = evaluate(arguments.get(0));
+                Object b = evaluate(arguments.get(1));
+                Object c = evaluate(arguments.get(2));
+                return callable(expr,callee).call3(this,a,b,c);
+            }
+            default: {
+                Object[] values = new Object[arguments.size()];
+                for(int i = 0; i < values.length; i++){
+                    values[i] = evaluate(arguments.get(i));
+                }
+                return callable(expr,callee).callN(this,values);
+            }
+        }
+    }
+    private Object callIntrinsic(Expr.Call expr, MathIntrinsic intrinsic)
+    {
+        /*
+        the callee is a global that still holds the intrinsic, so there is no need to look it up.
+        the arguments are evaluated and handed to the math function directly, the resolver already checked the count.
+         */
+        List<Expr> arguments = expr.arguments;
+        switch(arguments.size()){
+            case 1:
+                return intrinsic.apply(numberArgument(expr,arguments.get(0)));
+            case 2: {
+                double a = numberArgument(expr,arguments.get(0));
+                return intrinsic.apply(a,numberArgument(expr,arguments.get(1)));
+            }
+            default: {
+                double a = numberArgument(expr,arguments.get(0));
+                double b = numberArgument(expr,arguments.get(1));
+                return intrinsic.apply(a,b,numberArgument(expr,arguments.get(2)));
+            }
+        }
+    }
+    private double numberArgument(Expr.Call expr, Expr argument)
+    {
+        Object value = evaluate(argument);
+        if(value instanceof Double) return (double)value;
+        throw new RuntimeError(expr.paren,"Arguments to '"+expr.intrinsic.jemName+"' must be numbers.");
+    }
+    private Object invoke(JemFunction function, List<Expr> arguments)
+    {
+        //the fast path of dispatch(), a cast to the class instead of a call through the interface
+        switch(arguments.size()){
+            case 0:
+                return function.call0(this);
+            case 1:
+                return function.call1(this,evaluate(arguments.get(0)));
+            case 2: {
+                Object a = evaluate(arguments.get(0));
+                return function.call2(this,a,evaluate(arguments.get(1)));
+            }
+            case 3: {
+                Object a = evaluate(arguments.get(0));
+                Object b = evaluate(arguments.get(1));
+                return function.call3(this,a,b,evaluate(arguments.get(2)));
+            }
+            default:
+                return function.callN(this,evaluateAll(arguments));
+        }
+    }
+    private Object construct(JemClass klass, List<Expr> arguments)
+    {
+        switch(arguments.size()){
+            case 0:
+                return klass.call0(this);
+            case 1:
+                return klass.call1(this,evaluate(arguments.get(0)));
+            case 2: {
+                Object a = evaluate(arguments.get(0));
+                return klass.call2(this,a,evaluate(arguments.get(1)));
+            }
+            case 3: {
+                Object a = evaluate(arguments.get(0));
+                Object b = evaluate(arguments.get(1));
+                return klass.call3(this,a,b,evaluate(arguments.get(2)));
+            }
+            default:
+                return klass.callN(this,evaluateAll(arguments));
+        }
+    }
+    private Object[] evaluateAll(List<Expr> arguments)
+    {
+        Object[] values = new Object[arguments.size()];
+        for(int i = 0; i < values.length; i++){
+            values[i] = evaluate(arguments.get(i));
+        }
+        return values;
+    }
+    private JemCallable callable(Expr.Call expr, Object callee)
+    {
+        //Once we've got the callee and the arguments ready, we check it is something we can call with that many arguments
+        //the site remembers callees that pass, see dispatch(). a spawned call gets here without going through it
+        CallSite site = expr.site;
+        if(site == null) site = newCallSite(expr);
 
         if(!(callee instanceof JemCallable))
         {
@@ -531,12 +848,76 @@ public class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Void> {
         }
 
         JemCallable function = (JemCallable)callee;
-        if(arguments.size() != function.arity()){
+        checkArity(expr,function.arity());
+        site.record(callee);
+        return function;
+    }
+    private CallSite newCallSite(Expr.Call expr)
+    {
+        CallSite site = new CallSite(expr.paren.line);
+        expr.site = site;
+        if(callSites != null) callSites.add(site);
+        return site;
+    }
+    void collectCallStatistics()
+    {
+        callSites = new ArrayList<>();
+    }
+    void reportCallStatistics(PrintStream out)
+    {
+        if(callSites == null) return;
+        for(CallSite site : callSites){
+            out.println(site);
+        }
+    }
+    private void checkArity(Expr.Call expr, int arity)
+    {
+        //natives that take any number of arguments have a negative arity
+        if(arity >= 0 && expr.arguments.size() != arity){
             throw new RuntimeError(expr.paren,"Expected "+
-                    function.arity()+" arguments but got "+
-                    arguments.size() + ".");
+                    arity+" arguments but got "+
+                    expr.arguments.size() + ".");
+        }
+    }
+    private Object callSuper(Expr.Call expr, Expr.Super callee)
+    {
+        //super.method(...) calls the method with the current receiver directly instead of binding a copy first
+        Environment receiverScope = superReceiverScope(callee);
+        JemInstance object = (JemInstance)receiverScope.getAt(0,"this");
+        JemFunction method = superMethod(callee,receiverScope);
+
+        List<Expr> arguments = expr.arguments;
+        switch(arguments.size()){
+            case 0:
+                checkArity(expr,method.arity());
+                return method.invoke0(this,method.receiverScope(this,object));
+            case 1: {
+                Object a = evaluate(arguments.get(0));
+                checkArity(expr,method.arity());
+                return method.invoke1(this,method.receiverScope(this,object),a);
+            }
+            case 2: {
+                Object a = evaluate(arguments.get(0));
+                Object b = evaluate(arguments.get(1));
+                checkArity(expr,method.arity());
+                return method.invoke2(this,method.receiverScope(this,object),a,b);
+            }
+            case 3: {
+                Object a = evaluate(arguments.get(0));
+                Object b = evaluate(arguments.get(1));
+                Object c = evaluate(arguments.get(2));
+                checkArity(expr,method.arity());
+                return method.invoke3(this,method.receiverScope(this,object),a,b,c);
+            }
+            default: {
+                Object[] values = new Object[arguments.size()];
+                for(int i = 0; i < values.length; i++){
+                    values[i] = evaluate(arguments.get(i));
+                }
+                checkArity(expr,method.arity());
+                return method.invokeN(this,method.receiverScope(this,object),values);
+            }
         }
-        return function.call(this,arguments);
     }
     @Override
     public Object visitGetExpr(Expr.Get expr)
@@ -544,7 +925,12 @@ public class Interpreter implements Expr.Visitor<Object>,Stmt.Visitor<Void> {
         Object object = evaluate(expr.Object);
         if(object instanceof JemInstance)
         {
-            return ((JemInstance) object).get(expr.name);
+            return ((JemInstance) object).get(this,expr.name);
+        }
+        if(object instanceof NativeObject)
+        {
+            //modules, tasks and channels
+            return ((NativeObject) object).get(expr.name);
         }
 
         throw new RuntimeError(expr.name,
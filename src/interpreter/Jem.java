@@ -4,21 +4,75 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 //using java new io libraries
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;//A named mapping between sequences of sixteen-bit Unicode code units and sequences of bytes.
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files; //contains exclusive static methods that operate on files, directories etc
+import java.nio.file.Path;
 import java.nio.file.Paths; //object used to locate local files on the system
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 
 public class Jem {
-    private static final Interpreter interpreter = new Interpreter();
-    static boolean hadError = false;
-    static boolean hadRuntimeError = false; // single copy is created and shared among all instances of the class
+    //output and errors of everything run from the command line, the server makes its own per request
+    private static final Reporter reporter = new Reporter(System.out, System.err, System.in);
+    /*
+    the interpreter is only created when the first statement is about to run, so a usage mistake or a
+    script with syntax errors never pays for setting it up.
+     */
+    private static final class Shared {
+        static final Interpreter interpreter = new Interpreter(reporter);
+    }
+    private static final boolean compactAst = Boolean.getBoolean("jem.compactAst");
+    /*
+    with -Djem.lazyParse=true function bodies are parsed and resolved on their first call.
+    syntax errors in a body are then only reported if it is called, leave it off to have them all reported up front.
+    the flat form holds every body, so lazy parsing is left off together with jem.compactAst.
+     */
+    private static final boolean lazyParse = Boolean.getBoolean("jem.lazyParse") && !compactAst;
+    /*
+    -Djem.cacheDir=<directory> keeps compiled scripts in that directory, so unchanged scripts skip the
+    scanner, parser and resolver on later runs. -Djem.timings=true prints how long compiling and running took.
+     */
+    private static final Path cacheDirectory = System.getProperty("jem.cacheDir") == null ? null : Paths.get(System.getProperty("jem.cacheDir"));
+    private static final boolean timings = Boolean.getBoolean("jem.timings");
+    private static final long MAP_THRESHOLD = 1 << 20;
+    //null when nothing is cached, a server also keeps the programs it compiled in memory, see serve()
+    private static volatile ProgramCache cache = cacheDirectory == null ? null : new ProgramCache(cacheDirectory, 0);
+
+    private static Interpreter interpreter() {
+        return Shared.interpreter;
+    }
 
     public static void main(String args[]) throws IOException {
-
-        if (args.length > 1) {
-            System.out.println("Usage: Jem [script]");
+        //run with -Djem.callstats=true to get hit and miss counts for every call site on stderr
+        if (Boolean.getBoolean("jem.callstats")) interpreter().collectCallStatistics();
+
+        if (args.length >= 3 && args[0].equals("--snapshot")) {
+            //runs the script and writes the globals it leaves behind to the snapshot file, see Snapshot
+            runfile(args[2], rest(args, 3), Paths.get(args[1]));
+        } else if (args.length >= 2 && args[0].equals("--restore")) {
+            //starts from the globals in the snapshot file instead of running the setup again
+            restore(Paths.get(args[1]));
+            if (args.length >= 3) runfile(args[2], rest(args, 3), null);
+            else runPrompt();
+        } else if ((args.length == 1 || args.length == 2) && args[0].equals("--serve")) {
+            //keeps running and runs scripts sent by --connect, see JemServer
+            serve(args.length == 2 ? Integer.parseInt(args[1]) : JemServer.DEFAULT_PORT);
+        } else if (args.length >= 3 && args[0].equals("--connect")) {
+            System.exit(JemServer.connect(Integer.parseInt(args[1]), args[2], rest(args, 3)));
+        } else if (args.length >= 2 && args[0].equals("--batch")) {
+            //runs every script given, side by side, see BatchRunner
+            System.exit(BatchRunner.main(rest(args, 1)));
+        } else if (args.length >= 1 && args[0].startsWith("--")) {
+            System.out.println("Usage: Jem [--snapshot file | --restore file] [script [arguments]]\n"
+                    + "       Jem --batch [--threads n] (script | directory)...\n"
+                    + "       Jem --serve [port]\n"
+                    + "       Jem --connect port script [arguments]");
             /*
             using exit code 64, the command was used incorrectly example if wrong number of
             arguments are given, a bad flag, bad syntax in parameter
@@ -27,21 +81,101 @@ public class Jem {
             */
             System.exit(64); //EX_USAGE
             //64 is for wrong number of arguments, bad flag
-        } else if (args.length == 1) {
-            runfile(args[0]);
+        } else if (args.length >= 1) {
+            runfile(args[0], rest(args, 1), null);
         } else {
             runPrompt();
         }
     }
 
-    private static void runfile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset())); // default charset used in the machine Charset.defaultcharset()
+    private static List<String> rest(String[] args, int from) {
+        //whatever follows the script on the command line, the script reads it with io.argument()
+        return from >= args.length ? Collections.emptyList() : Arrays.asList(args).subList(from, args.length);
+    }
+
+    private static void runfile(String path, List<String> arguments, Path snapshot) throws IOException {
+        Path script = Paths.get(path);
+        long began = System.nanoTime();
+        List<Stmt> statements = compileFile(script, reporter);
+        long compiled = System.nanoTime();
+        if (statements != null) {
+            //modules the script imports are looked for next to it first
+            interpreter().setScriptDirectory(script.toAbsolutePath().getParent());
+            interpreter().setArguments(arguments);
+            interpreter().interpret(statements);
+            interpreter().reportCallStatistics(System.err);
+        }
+        if (timings) {
+            System.err.printf("compile %.2f ms, run %.2f ms%n", (compiled - began) / 1e6, (System.nanoTime() - compiled) / 1e6);
+        }
+        if (snapshot != null && reporter.exitCode() == 0) writeSnapshot(snapshot);
 
-        if (hadError) System.exit(65); //input data was incorrect
-        if (hadRuntimeError) System.exit(70); //internal software error has been detected (non OS related errors).
-        //code 65 indicates input data has some kind of error
+        //code 65 indicates input data has some kind of error, 70 that running it failed
+        if (reporter.exitCode() != 0) System.exit(reporter.exitCode());
+    }
 
+    private static void serve(int port) throws IOException {
+        //compiled programs stay in memory between requests, on top of the cache directory if there is one
+        cache = new ProgramCache(cacheDirectory, JemServer.PROGRAMS_IN_MEMORY);
+        new JemServer(port).run();
+    }
+
+    private static void writeSnapshot(Path file) {
+        try {
+            Snapshot.write(interpreter(), file);
+        } catch (RuntimeError error) {
+            //a lazily parsed body with errors in it
+            reporter.runtimeError(error);
+        } catch (IOException e) {
+            System.err.println("Could not write snapshot: " + e.getMessage());
+            System.exit(74); //EX_IOERR
+        }
+    }
+
+    private static void restore(Path file) {
+        long began = System.nanoTime();
+        try {
+            Snapshot.restore(interpreter(), file);
+        } catch (RuntimeError error) {
+            //a native library the snapshot refers to could not be loaded
+            reporter.runtimeError(error);
+            System.exit(70);
+        } catch (IOException e) {
+            System.err.println("Could not read snapshot: " + e.getMessage());
+            System.exit(74); //EX_IOERR
+        }
+        if (timings) System.err.printf("restore %.2f ms%n", (System.nanoTime() - began) / 1e6);
+    }
+
+    static List<Stmt> compileFile(Path path, Reporter reporter) throws IOException {
+        //null when there were errors, they have been reported
+        return compileSource(readSource(path), reporter);
+    }
+
+    static List<Stmt> compileSource(ByteBuffer source, Reporter reporter) {
+        ProgramCache cache = Jem.cache;
+        return cache == null ? compile(new Scanner(source, reporter), lazyParse, reporter) : compileCached(cache, source, reporter);
+    }
+
+    static ByteBuffer readSource(Path path) throws IOException {
+        /*
+        scripts are UTF-8 unless -Djem.encoding says otherwise.
+        a large UTF-8 file is memory mapped and scanned in place, so it never has to be copied onto the heap.
+        any other encoding is read and converted to UTF-8 first.
+         */
+        Charset charset = Charset.forName(System.getProperty("jem.encoding", "UTF-8"));
+        if (!charset.equals(StandardCharsets.UTF_8)) {
+            byte[] bytes = Files.readAllBytes(path);
+            return ByteBuffer.wrap(new String(bytes, charset).getBytes(StandardCharsets.UTF_8));
+        }
+        if (Files.size(path) < MAP_THRESHOLD) {
+            //small scripts are just read, setting up a mapping costs more than copying them
+            return ByteBuffer.wrap(Files.readAllBytes(path));
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            //the mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
     }
 
     //for interactive interpreter
@@ -55,56 +189,59 @@ public class Jem {
             if (line == null) break;
             //if nothing is entered break the prompt
             //Ctrl+D to stop the prompt
-            run(line);
+            run(new Scanner(line, reporter));
             //reset flag in the interactive loop, if user makes mistake it should not kill entire process.
-            hadError = false;
+            reporter.hadError = false;
 
         }
     }
 
-    private static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-        Parser parser = new Parser(tokens);
+    private static void run(Scanner scanner) {
+        List<Stmt> statements = compile(scanner, lazyParse, reporter);
+        if (statements != null) interpreter().interpret(statements);
+    }
+
+    private static List<Stmt> compile(Scanner scanner, boolean lazy, Reporter reporter) {
+        //null when there were errors
+        Parser parser = new Parser(scanner.tokens(), lazy, reporter);
         List<Stmt> statements = parser.parse();
 
         //stop if there was a syntax error.
 
-        if (hadError) return;
-        Resolver resolver = new Resolver(interpreter);
+        if (reporter.hadError) return null;
+        Resolver resolver = new Resolver(reporter);
         resolver.resolve(statements);
 
-        if (hadError) return;
-        interpreter.interpret(statements);
-    }
-
-    static void error(int line, String message) {
-        report(line, "", message);
-    }
-
-    static void runtimeError(RuntimeError error) {
-        System.out.println(error.getMessage() +
-                "\n[line " + error.token.line + "]");
-        hadRuntimeError = true;
-    }
-
-    private static void report(int line, String where, String message) {
-        System.err.println(
-                "[line " + line + "] Error" + where + ": " + message
-        );
-        hadError = true;
+        if (reporter.hadError) return null;
+        /*
+        with -Djem.compactAst=true the resolved tree is packed into a FlatAst and dropped,
+        statements and function bodies are then decoded from it as they are reached.
+         */
+        if (compactAst) statements = FlatAst.encode(statements).statements();
+        return statements;
     }
 
-    static void error(Token token, String message) {
+    private static List<Stmt> compileCached(ProgramCache cache, ByteBuffer source, Reporter reporter) {
         /*
-        this reports an error at a given token.
-        it shows the token's location and token itself.
-        this will come in handy as we use tokens to track loactions
+        a script that was compiled before is loaded from the cache instead, see ProgramCache.
+        what is cached is the flat form, which holds every function body, so nothing is parsed lazily here.
          */
-        if (token.type == TokenTypes.EOF) {
-            report(token.line, " at end", message);
-        } else {
-            report(token.line, " at '" + token.lexeme + "'", message);
+        long began = System.nanoTime();
+        String key = ProgramCache.key(source);
+        List<Stmt> statements = cache.recent(key);
+        if (statements != null) return statements;
+        FlatAst program = cache.load(key);
+        if (program != null) {
+            if (timings) System.err.printf("cache hit %s, loaded in %.2f ms%n", key, (System.nanoTime() - began) / 1e6);
+            return cache.remember(key, program.statements());
+        }
+        statements = compile(new Scanner(source, reporter), false, reporter);
+        if (statements == null) return null;
+        if (cache.persistent()) {
+            //the tree just compiled is run as it is, the entry is written while it runs
+            cache.storeLater(key, statements);
+            if (timings) System.err.printf("cache miss %s, compiled in %.2f ms%n", key, (System.nanoTime() - began) / 1e6);
         }
+        return cache.remember(key, statements);
     }
 }
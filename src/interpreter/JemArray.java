@@ -0,0 +1,154 @@
+package interpreter;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+a growable array of values, made by the array library (see NativeLibraries.array()).
+a.get(i), a.set(i, value), a.push(value) and a.length() are its methods, indexes start at 0.
+
+like variables, an array takes no lock. tasks can read one together, but two tasks changing one at once can lose
+a change, use a channel to hand the values to one task instead. a read racing a change never fails, the backing
+array only ever grows. once another thread can reach an array, what is stored in it is shared too, see JemTask.share().
+ */
+final class JemArray implements NativeObject, JemSequence {
+    private Object[] elements;
+    private int length;
+    private boolean shared = false;
+
+    JemArray(Object[] elements)
+    {
+        //takes the array over, nothing else may keep it
+        this.elements = elements;
+        this.length = elements.length;
+    }
+
+    JemArray(List<Object> elements)
+    {
+        this(elements.toArray());
+    }
+
+    @Override
+    public int length()
+    {
+        return length;
+    }
+
+    @Override
+    public Object at(int index)
+    {
+        return elements[index];
+    }
+
+    private int checkIndex(List<Object> args)
+    {
+        Object value = args.get(0);
+        if(!(value instanceof Double) || (double)value != Math.rint((double)value)){
+            throw new RuntimeError(null,"An array index must be a whole number.");
+        }
+        int index = (int)(double)value;
+        if(index < 0 || index >= length) throw new RuntimeError(null,"Index "+index+" out of range for an array of "+length+".");
+        return index;
+    }
+
+    Object[] toArray()
+    {
+        //a copy of what the array holds now
+        return Arrays.copyOf(elements,length);
+    }
+
+    void share(ArrayDeque<Object> pending)
+    {
+        if(shared) return;
+        shared = true;
+        for(int i = 0; i < length; i++){
+            if(elements[i] != null) pending.add(elements[i]);
+        }
+    }
+
+    private void push(Interpreter interpreter, Object value)
+    {
+        if(shared) JemTask.share(value);
+        if(length == elements.length){
+            int capacity = Math.max(8,length*2);
+            interpreter.allocate(null,Budget.ELEMENT_BYTES*capacity);
+            elements = Arrays.copyOf(elements,capacity);
+        }
+        elements[length++] = value;
+    }
+
+    String stringify(Interpreter interpreter)
+    {
+        StringBuilder text = new StringBuilder("[");
+        for(int i = 0; i < length; i++){
+            if(i > 0) text.append(", ");
+            //an array that holds itself is shown once
+            text.append(elements[i] == this ? "[...]" : interpreter.stringify(elements[i]));
+        }
+        return text.append(']').toString();
+    }
+
+    @Override
+    public Object get(Token name)
+    {
+        switch(name.lexeme){
+            case "get": return new NativeLibraries.Native("array.get",1,(interpreter,args) -> elements[checkIndex(args)]);
+            case "set": return new NativeLibraries.Native("array.set",2,(interpreter,args) -> {
+                int index = checkIndex(args);
+                if(shared) JemTask.share(args.get(1));
+                elements[index] = args.get(1);
+                return null;
+            });
+            case "push": return new NativeLibraries.Native("array.push",1,(interpreter,args) -> {
+                push(interpreter,args.get(0));
+                return null;
+            });
+            case "length": return new NativeLibraries.Native("array.length",0,(interpreter,args) -> (double)length);
+            default: throw new RuntimeError(name,"Arrays have no property '"+name.lexeme+"'.");
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "<array>";
+    }
+
+    //the whole numbers from, from+1, ... up to but not including to, made by array.range(). nothing is stored
+    static final class Range implements NativeObject, JemSequence {
+        final int from;
+        final int to;
+
+        Range(int from, int to)
+        {
+            this.from = from;
+            this.to = Math.max(from,to);
+        }
+
+        @Override
+        public int length()
+        {
+            return to-from;
+        }
+
+        @Override
+        public Object at(int index)
+        {
+            return (double)(from+index);
+        }
+
+        @Override
+        public Object get(Token name)
+        {
+            if(name.lexeme.equals("length")) return new NativeLibraries.Native("range.length",0,(interpreter,args) -> (double)length());
+            throw new RuntimeError(name,"Ranges have no property '"+name.lexeme+"'.");
+        }
+
+        @Override
+        public String toString()
+        {
+            return "<range "+from+".."+to+">";
+        }
+    }
+}
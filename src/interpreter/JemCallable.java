@@ -1,8 +1,30 @@
 package interpreter;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 public interface JemCallable {
-    int arity();//check number of arguments
+    int arity();//check number of arguments, negative for any number of them
     Object call(Interpreter interpreter, List<Object> arguments);//we pass in the interpreter in case the class implementing call() needs it.
+    /*
+    fixed arity entry points, the interpreter picks one by the number of arguments at the call site
+    so it doesn't have to build a list for every call.
+    by default they pack the arguments up and fall back to call(), callables override the ones they can handle directly.
+     */
+    default Object call0(Interpreter interpreter){
+        return call(interpreter, Collections.emptyList());
+    }
+    default Object call1(Interpreter interpreter, Object a){
+        return call(interpreter, Collections.singletonList(a));
+    }
+    default Object call2(Interpreter interpreter, Object a, Object b){
+        return call(interpreter, Arrays.asList(a,b));
+    }
+    default Object call3(Interpreter interpreter, Object a, Object b, Object c){
+        return call(interpreter, Arrays.asList(a,b,c));
+    }
+    default Object callN(Interpreter interpreter, Object... arguments){
+        return call(interpreter, Arrays.asList(arguments));
+    }
 }
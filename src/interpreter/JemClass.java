@@ -1,17 +1,47 @@
 package interpreter;
 
+import java.util.ArrayDeque;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class JemClass implements JemCallable {
     final String name;
+    //the class statement this class was made from, null for one restored from a snapshot. the key of CallSite
+    final Stmt.Class declaration;
     final JemClass superclass;
     private final Map<String, JemFunction> methods;
+    /*
+    methods found in a superclass, so a super call or an inherited method down a long chain of classes is one lookup
+    after the first. nothing changes once the classes are created so an entry never goes stale. tasks of the run
+    share the class, hence the concurrent map.
+     */
+    private final Map<String, JemFunction> inherited = new ConcurrentHashMap<>();
+    /*
+    methods and superclass never change once the class is created,
+    so the initializer and the arity are looked up once here instead of on every instantiation.
+     */
+    private final JemFunction initializer;
+    private final int arity;
+    //largest number of fields init has been seen to assign, used to pre-size new instances
+    private int expectedFields = 0;
+    //set once another thread can reach this class, see JemTask.share()
+    private boolean shared = false;
     JemClass(String name,JemClass superclass,Map<String, JemFunction> methods){
-
+        this(null,name,superclass,methods);
+    }
+    JemClass(Stmt.Class declaration,String name,JemClass superclass,Map<String, JemFunction> methods){
+        this.declaration = declaration;
         this.superclass = superclass;
         this.name = name;
         this.methods =methods;
+        this.initializer = findMethod("init");
+        this.arity = initializer == null ? 0 : initializer.arity();
+    }
+    Map<String, JemFunction> methods()
+    {
+        //only the methods declared in this class
+        return methods;
     }
     JemFunction findMethod(String name)
     {
@@ -21,12 +51,25 @@ public class JemClass implements JemCallable {
         }
         if(superclass !=null)
         {
-            return superclass.findMethod(name);
+            JemFunction method = inherited.get(name);
+            if(method != null) return method;
+            method = superclass.findMethod(name);
+            if(method != null) inherited.put(name,method);
+            return method;
         }
         return null;
     }
 
 
+    void share(ArrayDeque<Object> pending)
+    {
+        //the methods close over the scope the class was declared in, the superclass has methods of its own
+        if(shared) return;
+        shared = true;
+        pending.addAll(methods.values());
+        if(superclass != null) pending.add(superclass);
+    }
+
     @Override
     public String toString()
     {
@@ -34,20 +77,62 @@ public class JemClass implements JemCallable {
     }
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments){
-        JemInstance instance = new JemInstance(this);
-        JemFunction initializer = findMethod("init");
+        JemInstance instance = instance(interpreter);
+        if(initializer!=null)
+        {
+            initializer.invokeList(interpreter, initializer.receiverScope(interpreter, instance), arguments);
+        }
+        return initialized(instance);
+    }
+    @Override
+    public Object call0(Interpreter interpreter){
+        JemInstance instance = instance(interpreter);
         if(initializer!=null)
         {
-            initializer.bind(instance).call(interpreter, arguments);
+            initializer.invoke0(interpreter, initializer.receiverScope(interpreter, instance));
         }
+        return initialized(instance);
+    }
+    //call1 and up are only reached once the arity check has passed, so there is an initializer taking those arguments
+    @Override
+    public Object call1(Interpreter interpreter, Object a){
+        JemInstance instance = instance(interpreter);
+        initializer.invoke1(interpreter, initializer.receiverScope(interpreter, instance), a);
+        return initialized(instance);
+    }
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b){
+        JemInstance instance = instance(interpreter);
+        initializer.invoke2(interpreter, initializer.receiverScope(interpreter, instance), a, b);
+        return initialized(instance);
+    }
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c){
+        JemInstance instance = instance(interpreter);
+        initializer.invoke3(interpreter, initializer.receiverScope(interpreter, instance), a, b, c);
+        return initialized(instance);
+    }
+    @Override
+    public Object callN(Interpreter interpreter, Object... arguments){
+        JemInstance instance = instance(interpreter);
+        initializer.invokeN(interpreter, initializer.receiverScope(interpreter, instance), arguments);
+        return initialized(instance);
+    }
+    private JemInstance instance(Interpreter interpreter)
+    {
+        interpreter.allocate(null,Budget.INSTANCE_BYTES+Budget.FIELD_BYTES*expectedFields);
+        return new JemInstance(this, expectedFields);
+    }
+    private JemInstance initialized(JemInstance instance)
+    {
+        int assigned = instance.fieldCount();
+        if(assigned > expectedFields) expectedFields = assigned;
         return instance;
     }
 
     @Override
     public int arity()
     {
-        JemFunction initializer = findMethod("init");
-        if(initializer == null ) return 0;
-        return initializer.arity();
+        return arity;
     }
 }
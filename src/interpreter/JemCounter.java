@@ -0,0 +1,52 @@
+package interpreter;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+a whole number many tasks can add to at once, made by concurrent.counter(), see NativeLibraries.concurrent().
+it is a LongAdder: every thread adds to a cell of its own when they collide, so adding never waits on another
+task and sum() adds the cells up. a sum taken while tasks are still adding may miss what they add meanwhile.
+ */
+final class JemCounter implements NativeObject {
+    private final LongAdder value = new LongAdder();
+
+    private static long amount(Object value)
+    {
+        if(value instanceof Double && (double)value == Math.rint((double)value)) return (long)(double)value;
+        throw new RuntimeError(null,"A counter only adds whole numbers.");
+    }
+
+    long sum()
+    {
+        return value.sum();
+    }
+
+    void add(long amount)
+    {
+        value.add(amount);
+    }
+
+    @Override
+    public Object get(Token name)
+    {
+        switch(name.lexeme){
+            case "add": return new NativeLibraries.Native("counter.add",1,(interpreter,args) -> {
+                value.add(amount(args.get(0)));
+                return null;
+            });
+            case "increment": return new NativeLibraries.Native("counter.increment",0,(interpreter,args) -> {
+                value.increment();
+                return null;
+            });
+            case "sum": return new NativeLibraries.Native("counter.sum",0,(interpreter,args) -> (double)value.sum());
+            case "reset": return new NativeLibraries.Native("counter.reset",0,(interpreter,args) -> (double)value.sumThenReset());
+            default: throw new RuntimeError(name,"Counters have no property '"+name.lexeme+"'.");
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "<counter "+value.sum()+">";
+    }
+}
@@ -3,19 +3,39 @@ package interpreter;
 import java.util.List;
 
 public class JemFunction implements JemCallable{
-    private final Stmt.Function declaration;
+    final Stmt.Function declaration;
     private final Environment closure;
+    //the globals of the module the function was declared in, the outermost scope of the closure
+    private final Environment globals;
     private final boolean isInitializer;
     JemFunction(Stmt.Function declaration, Environment closure,boolean isInitializer){
+        this(declaration,closure,isInitializer,outermost(closure));
+    }
+    private JemFunction(Stmt.Function declaration, Environment closure, boolean isInitializer, Environment globals){
         this.isInitializer = isInitializer;
         this.closure = closure;
         this.declaration = declaration;
+        this.globals = globals;
+    }
+    private static Environment outermost(Environment environment)
+    {
+        while(environment.enclosing != null) environment = environment.enclosing;
+        return environment;
+    }
+    Environment closure()
+    {
+        return closure;
+    }
+    boolean isInitializer()
+    {
+        return isInitializer;
     }
-    JemFunction bind(JemInstance instance)
+    JemFunction bind(Interpreter interpreter, JemInstance instance)
     {
+        interpreter.allocate(declaration.name,Budget.ENVIRONMENT_BYTES+Budget.FUNCTION_BYTES);
         Environment environment = new Environment(closure);
         environment.define("this",instance);
-        return new JemFunction(declaration,environment,isInitializer);
+        return new JemFunction(declaration,environment,isInitializer,globals);
     }
     public String toString()
     {
@@ -28,25 +48,102 @@ public class JemFunction implements JemCallable{
     }
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments){
-        Environment environment = new Environment(closure);
+        return invokeList(interpreter, closure, arguments);
+    }
+    @Override
+    public Object call0(Interpreter interpreter){
+        return invoke0(interpreter, closure);
+    }
+    @Override
+    public Object call1(Interpreter interpreter, Object a){
+        return invoke1(interpreter, closure, a);
+    }
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b){
+        return invoke2(interpreter, closure, a, b);
+    }
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c){
+        return invoke3(interpreter, closure, a, b, c);
+    }
+    @Override
+    public Object callN(Interpreter interpreter, Object... arguments){
+        return invokeN(interpreter, closure, arguments);
+    }
+    Environment receiverScope(Interpreter interpreter, JemInstance receiver)
+    {
+        /*
+        the scope bind() would have created.
+        invoking with it as the enclosing scope is the same as bind(receiver).call(...)
+        but without allocating the bound copy of the function, used by constructors and super calls.
+         */
+        Environment environment = interpreter.acquire(closure);
+        environment.define("this",receiver);
+        return environment;
+    }
+    /*
+    the invoke methods run the body with the parameters bound in a new scope nested in 'enclosing',
+    which is the closure itself or a receiver scope.
+    both the new scope and a receiver scope are given back to the interpreter when the call returns.
+     */
+    Object invokeList(Interpreter interpreter, Environment enclosing, List<Object> arguments){
+        Environment environment = interpreter.acquire(enclosing);
         //each fucntion call gets its own environment
         //Environment environment  = new Environment(interpreter.globals);
         for(int i =0;i<declaration.params.size(); i++ ){
             environment.define(declaration.params.get(i).lexeme,arguments.get(i));
         }
+        return run(interpreter, enclosing, environment);
+    }
+    Object invokeN(Interpreter interpreter, Environment enclosing, Object[] arguments){
+        Environment environment = interpreter.acquire(enclosing);
+        for(int i =0;i<declaration.params.size(); i++ ){
+            environment.define(declaration.params.get(i).lexeme,arguments[i]);
+        }
+        return run(interpreter, enclosing, environment);
+    }
+    Object invoke0(Interpreter interpreter, Environment enclosing){
+        return run(interpreter, enclosing, interpreter.acquire(enclosing));
+    }
+    Object invoke1(Interpreter interpreter, Environment enclosing, Object a){
+        Environment environment = interpreter.acquire(enclosing);
+        environment.define(declaration.params.get(0).lexeme,a);
+        return run(interpreter, enclosing, environment);
+    }
+    Object invoke2(Interpreter interpreter, Environment enclosing, Object a, Object b){
+        Environment environment = interpreter.acquire(enclosing);
+        environment.define(declaration.params.get(0).lexeme,a);
+        environment.define(declaration.params.get(1).lexeme,b);
+        return run(interpreter, enclosing, environment);
+    }
+    Object invoke3(Interpreter interpreter, Environment enclosing, Object a, Object b, Object c){
+        Environment environment = interpreter.acquire(enclosing);
+        environment.define(declaration.params.get(0).lexeme,a);
+        environment.define(declaration.params.get(1).lexeme,b);
+        environment.define(declaration.params.get(2).lexeme,c);
+        return run(interpreter, enclosing, environment);
+    }
+    private Object run(Interpreter interpreter, Environment enclosing, Environment environment){
         /*
         we wrap the call to executeBlock() in a try-catch block.
         when it catches an exception, it pulls the value and makes that the return value from call.
         if it never catches one of those exceptions, it means the function reached the end of its body without hitting a return.
         in that case returns a nil;
          */
+        //globals are looked up in the declaring module, whichever module the call came from
+        Environment callerGlobals = interpreter.globals;
+        interpreter.globals = globals;
         try{
-            interpreter.executeBlock(declaration.body,environment);
+            interpreter.executeBlock(declaration.body(),environment);
+            if (isInitializer) return enclosing.getAt(0,"this");
+            return null;
         }catch(Return returnValue){
-            if(isInitializer) return closure.getAt(0,"this");
+            if(isInitializer) return enclosing.getAt(0,"this");
             return returnValue.value;
+        }finally {
+            interpreter.globals = callerGlobals;
+            interpreter.release(environment);
+            if(enclosing != closure) interpreter.release(enclosing);
         }
-        if (isInitializer) return closure.getAt(0,"This");
-        return null;
     }
 }
@@ -1,27 +1,72 @@
 package interpreter;
 
+import java.util.ArrayDeque;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class JemInstance {
+    //stands in for nil once the fields are shared, ConcurrentHashMap takes no nulls
+    private static final Object NIL = new Object();
     private JemClass klass;
-    private final Map<String,  Object> fields = new HashMap<>();
-    JemInstance(JemClass klass)
+    private Map<String,  Object> fields;
+    //set once another thread can reach this instance, see share()
+    private boolean shared = false;
+    JemInstance(JemClass klass, int expectedFields)
     {
         this.klass = klass;
+        //size the table so the expected fields fit without rehashing (HashMap resizes at 75% load)
+        this.fields = expectedFields == 0 ? new HashMap<>() : new HashMap<>(expectedFields * 4 / 3 + 1);
     }
-    Object get(Token name){
-        if(fields.containsKey(name.lexeme)){
-            return fields.get(name.lexeme);
-        }
+    Object get(Interpreter interpreter, Token name){
+        Object value = fields.get(name.lexeme);
+        if(value != null) return value == NIL ? null : value;
+        if(fields.containsKey(name.lexeme)) return null;
         JemFunction method = klass.findMethod(name.lexeme);
-        if(method !=null ) return method.bind(this);
+        if(method !=null ) return method.bind(interpreter,this);
         throw new RuntimeError(name,
                 "Undefined property '"+name.lexeme + "'.");
     }
     void set(Token name, Object value)
     {
-        fields.put(name.lexeme , value);
+        if(!shared){
+            fields.put(name.lexeme , value);
+            return;
+        }
+        JemTask.share(value);
+        fields.put(name.lexeme,value == null ? NIL : value);
+    }
+    void share(ArrayDeque<Object> pending)
+    {
+        //like Environment.share(), the fields become a concurrent map and what they hold is shared too
+        if(shared) return;
+        Map<String,Object> concurrent = new ConcurrentHashMap<>();
+        for(Map.Entry<String,Object> entry : fields.entrySet()){
+            concurrent.put(entry.getKey(),entry.getValue() == null ? NIL : entry.getValue());
+            if(entry.getValue() != null) pending.add(entry.getValue());
+        }
+        fields = concurrent;
+        shared = true;
+        pending.add(klass);
+    }
+
+    JemClass klass()
+    {
+        return klass;
+    }
+    Map<String, Object> fields()
+    {
+        //the live map, for Snapshot. a copy without the stand-ins for nil once shared, only to be read then
+        if(!shared) return fields;
+        Map<String,Object> copy = new HashMap<>();
+        for(Map.Entry<String,Object> entry : fields.entrySet()){
+            copy.put(entry.getKey(),entry.getValue() == NIL ? null : entry.getValue());
+        }
+        return copy;
+    }
+    int fieldCount()
+    {
+        return fields.size();
     }
 
     @Override
@@ -0,0 +1,127 @@
+package interpreter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+a map any number of tasks can read and change at once, made by concurrent.map(), see NativeLibraries.concurrent().
+keys are compared like == compares them, strings and numbers by value and instances by identity.
+
+it is a ConcurrentHashMap: reads take no lock and a write locks only the one bin its key falls in, so tasks
+working on different keys don't wait for each other. keys and values stored in it are shared, see JemTask.share().
+computeIfAbsent(key, fn(key)) and merge(key, value, fn(old, value)) are atomic, the function runs at most once per
+call while the bin of the key is locked, so it should be short and leave the same map alone, changing it from there
+can fail with an error.
+merge removes the key when the function returns nil.
+ */
+final class JemMap implements NativeObject {
+    //stands in for nil, ConcurrentHashMap takes no nulls
+    private static final Object NIL = new Object();
+
+    private final ConcurrentHashMap<Object,Object> entries = new ConcurrentHashMap<>();
+
+    private static Object in(Object value)
+    {
+        return value == null ? NIL : value;
+    }
+
+    private static Object stored(Object value)
+    {
+        //what goes into the map can be read by any task from then on
+        JemTask.share(value);
+        return in(value);
+    }
+
+    private static Object out(Object value)
+    {
+        return value == NIL ? null : value;
+    }
+
+    private Object computeIfAbsent(Interpreter interpreter, Object key, JemCallable function)
+    {
+        try{
+            return out(entries.computeIfAbsent(stored(key),absent -> stored(function.call1(interpreter,key))));
+        }catch(IllegalStateException e){
+            throw new RuntimeError(null,"The function given to computeIfAbsent changed the same map.");
+        }
+    }
+
+    private Object merge(Interpreter interpreter, Object key, Object value, JemCallable function)
+    {
+        try{
+            //what the function returns isn't wrapped, nil from it is a null that removes the key
+            return out(entries.merge(stored(key),stored(value),(old,given) -> {
+                Object merged = function.call2(interpreter,out(old),out(given));
+                JemTask.share(merged);
+                return merged;
+            }));
+        }catch(IllegalStateException e){
+            throw new RuntimeError(null,"The function given to merge changed the same map.");
+        }
+    }
+
+    Map<Object,Object> contents()
+    {
+        //a copy with nil as null, what a snapshot writes
+        Map<Object,Object> copy = new HashMap<>();
+        for(Map.Entry<Object,Object> entry : entries.entrySet()) copy.put(out(entry.getKey()),out(entry.getValue()));
+        return copy;
+    }
+
+    void restore(Object key, Object value)
+    {
+        //an entry read back from a snapshot, the reader shares it once everything is filled in
+        entries.put(in(key),in(value));
+    }
+
+    private JemArray keys()
+    {
+        //what the map holds right now, keys added or removed while this runs may or may not be in it
+        List<Object> keys = new ArrayList<>(entries.size());
+        for(Object key : entries.keySet()) keys.add(out(key));
+        return new JemArray(keys);
+    }
+
+    @Override
+    public Object get(Token name)
+    {
+        switch(name.lexeme){
+            case "get": return new NativeLibraries.Native("map.get",1,(interpreter,args) -> out(entries.get(in(args.get(0)))));
+            case "put": return new NativeLibraries.Native("map.put",2,(interpreter,args) ->
+                    out(entries.put(stored(args.get(0)),stored(args.get(1)))));
+            case "putIfAbsent": return new NativeLibraries.Native("map.putIfAbsent",2,(interpreter,args) ->
+                    out(entries.putIfAbsent(stored(args.get(0)),stored(args.get(1)))));
+            case "remove": return new NativeLibraries.Native("map.remove",1,(interpreter,args) -> out(entries.remove(in(args.get(0)))));
+            case "containsKey": return new NativeLibraries.Native("map.containsKey",1,(interpreter,args) ->
+                    entries.containsKey(in(args.get(0))));
+            case "size": return new NativeLibraries.Native("map.size",0,(interpreter,args) -> (double)entries.size());
+            case "keys": return new NativeLibraries.Native("map.keys",0,(interpreter,args) -> keys());
+            case "computeIfAbsent": return new NativeLibraries.Native("map.computeIfAbsent",2,(interpreter,args) -> {
+                JemCallable function = function(args.get(1));
+                NativeLibraries.checkArity("computeIfAbsent",function,1);
+                return computeIfAbsent(interpreter,args.get(0),function);
+            });
+            case "merge": return new NativeLibraries.Native("map.merge",3,(interpreter,args) -> {
+                JemCallable function = function(args.get(2));
+                NativeLibraries.checkArity("merge",function,2);
+                return merge(interpreter,args.get(0),args.get(1),function);
+            });
+            default: throw new RuntimeError(name,"Maps have no property '"+name.lexeme+"'.");
+        }
+    }
+
+    private static JemCallable function(Object value)
+    {
+        if(value instanceof JemCallable) return (JemCallable)value;
+        throw new RuntimeError(null,"Expected a function.");
+    }
+
+    @Override
+    public String toString()
+    {
+        return "<map of "+entries.size()+">";
+    }
+}
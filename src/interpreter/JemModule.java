@@ -0,0 +1,31 @@
+package interpreter;
+
+public class JemModule implements NativeObject {
+    /*
+    the value an import binds. its properties are the globals the module defined,
+    for a native library the functions and constants it offers.
+     */
+    final String name;
+    private final Environment globals;
+    JemModule(String name, Environment globals)
+    {
+        this.name = name;
+        this.globals = globals;
+    }
+    Environment globals()
+    {
+        return globals;
+    }
+    @Override
+    public Object get(Token name)
+    {
+        if(globals.isDefined(name.lexeme)) return globals.getAt(0,name.lexeme);
+        throw new RuntimeError(name,
+                "Module '"+this.name+"' has no member '"+name.lexeme+"'.");
+    }
+
+    @Override
+    public String toString(){
+        return "<module "+name+">";
+    }
+}
@@ -0,0 +1,10 @@
+package interpreter;
+
+/*
+what the parallel operations of the array library walk over, an array or a range, see Parallel.
+at() is only asked for indexes below length().
+ */
+interface JemSequence {
+    int length();
+    Object at(int index);
+}
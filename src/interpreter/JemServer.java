@@ -0,0 +1,215 @@
+package interpreter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+keeps one JVM running and runs the scripts sent to it, so a script run is not paying for starting a JVM,
+loading the interpreter's classes and warming up the JIT every time. started with Jem --serve [port],
+and Jem --connect port script [arguments] is the client that sends a script and prints what comes back.
+
+it only listens on the loopback address. every request runs on a thread of its own with its own Reporter and
+Interpreter, so it starts from fresh globals and sees nothing of the other runs. compiled programs are shared
+through the ProgramCache, an unchanged script is compiled once for the life of the server and the requests
+running it share its tree, see Program.
+
+a request is, the way DataOutputStream writes it:
+    int MAGIC, byte PATH or SOURCE, int length and UTF-8 bytes of the path or the source,
+    int count and writeUTF() of each argument.
+the reply is frames of a byte channel, an int length and that many bytes, STDOUT and STDERR frames as the
+script writes and one EXIT frame with the int exit code last. that is 0, 65 or 70 like a run from the command line,
+66 when the script can't be read.
+
+a script runs in the server's working directory, so the client sends paths made absolute. io.readLine() sees the
+end of its input, nothing is forwarded from the client's stdin.
+ */
+final class JemServer {
+    static final int DEFAULT_PORT = 7377;
+    //how many compiled programs the server keeps in memory, the least recently used one is dropped first
+    static final int PROGRAMS_IN_MEMORY = 256;
+
+    private static final int MAGIC = 0x4A454D01; //"JEM" and the version of the protocol
+    private static final byte PATH = 1;
+    private static final byte SOURCE = 2;
+    private static final byte EXIT = 0;
+    private static final byte STDOUT = 1;
+    private static final byte STDERR = 2;
+
+    private final int port;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    JemServer(int port)
+    {
+        this.port = port;
+    }
+
+    void run() throws IOException
+    {
+        try(ServerSocket server = new ServerSocket(port,50,InetAddress.getLoopbackAddress())){
+            System.err.println("Jem server listening on "+server.getLocalSocketAddress());
+            for(;;){
+                Socket client = server.accept();
+                Thread thread = new Thread(() -> serve(client),"jem-request-"+requests.incrementAndGet());
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+    }
+
+    private void serve(Socket client)
+    {
+        try(Socket socket = client){
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            if(in.readInt() != MAGIC) return; //not a client of this version, nothing sensible to answer
+            byte mode = in.readByte();
+            byte[] script = new byte[in.readInt()];
+            in.readFully(script);
+            List<String> arguments = new ArrayList<>();
+            for(int count = in.readInt(); count > 0; count--){
+                arguments.add(in.readUTF());
+            }
+            int code = execute(mode,script,arguments,out);
+            synchronized(out){
+                out.writeByte(EXIT);
+                out.writeInt(code);
+                out.flush();
+            }
+        }catch(IOException e){
+            //the client went away, there is nobody left to tell
+        }
+    }
+
+    private static int execute(byte mode, byte[] script, List<String> arguments, DataOutputStream frames)
+    {
+        PrintStream out = new PrintStream(new BufferedOutputStream(new Frames(frames,STDOUT),1 << 13),false);
+        PrintStream err = new PrintStream(new BufferedOutputStream(new Frames(frames,STDERR),1 << 13),false);
+        InputStream in = new ByteArrayInputStream(new byte[0]);
+        Reporter reporter = new Reporter(out,err,in);
+        int code;
+        try{
+            Program program = mode == PATH
+                    ? Program.compile(Paths.get(new String(script,StandardCharsets.UTF_8)),reporter)
+                    : Program.compile(ByteBuffer.wrap(script),null,reporter);
+            code = program == null ? reporter.exitCode() : program.run(reporter,arguments);
+        }catch(IOException e){
+            err.println("Can't read script: "+e.getMessage());
+            code = 66; //EX_NOINPUT
+        }catch(Throwable e){
+            //compiling a script nested too deeply for the parser ends that script only
+            err.println("Internal error: "+e);
+            code = 70;
+        }
+        out.flush();
+        err.flush();
+        return code;
+    }
+
+    //writes everything sent to it as frames of one channel. stdout and stderr share the socket, so a frame is written whole
+    private static final class Frames extends OutputStream {
+        private final DataOutputStream out;
+        private final byte channel;
+        Frames(DataOutputStream out, byte channel)
+        {
+            this.out = out;
+            this.channel = channel;
+        }
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte)b},0,1);
+        }
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if(length == 0) return;
+            synchronized(out){
+                out.writeByte(channel);
+                out.writeInt(length);
+                out.write(bytes,offset,length);
+            }
+        }
+        @Override
+        public void flush() throws IOException {
+            synchronized(out){
+                out.flush();
+            }
+        }
+    }
+
+    static int connect(int port, String script, List<String> arguments) throws IOException
+    {
+        /*
+        the client. a script of - is read from stdin and sent as source, anything else is sent as an absolute path.
+        returns the exit code of the run, or 69 when there is no server to run it.
+         */
+        byte mode;
+        byte[] bytes;
+        if(script.equals("-")){
+            mode = SOURCE;
+            ByteArrayOutputStream source = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1 << 13];
+            for(int read; (read = System.in.read(buffer)) > 0; ) source.write(buffer,0,read);
+            bytes = source.toByteArray();
+        }else{
+            mode = PATH;
+            bytes = Paths.get(script).toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8);
+        }
+        try(Socket socket = new Socket(InetAddress.getLoopbackAddress(),port)){
+            socket.setTcpNoDelay(true);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(MAGIC);
+            out.writeByte(mode);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.writeInt(arguments.size());
+            for(String argument : arguments) out.writeUTF(argument);
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            byte[] buffer = new byte[1 << 13];
+            for(;;){
+                byte channel = in.readByte();
+                if(channel == EXIT){
+                    System.out.flush();
+                    return in.readInt();
+                }
+                PrintStream target = channel == STDERR ? System.err : System.out;
+                //what the script printed before an error message comes out before it
+                if(target == System.err) System.out.flush();
+                for(int left = in.readInt(); left > 0; ){
+                    int read = in.read(buffer,0,Math.min(left,buffer.length));
+                    if(read < 0) throw new EOFException();
+                    target.write(buffer,0,read);
+                    left -= read;
+                }
+                //stderr is flushed as it comes, stdout when the run is over or the buffer is full
+                if(target == System.err) target.flush();
+            }
+        }catch(ConnectException e){
+            System.err.println("No Jem server on port "+port+", start one with Jem --serve "+port);
+            return 69; //EX_UNAVAILABLE
+        }catch(EOFException e){
+            System.err.println("The Jem server closed the connection before the script finished.");
+            return 70;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package interpreter;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+what spawn returns: a call running on a thread of its own. t.join() waits for it and gives back what the call
+returned, t.isDone() tells whether it has finished.
+
+a task runs in an Interpreter of its own made from the one that spawned it (see Interpreter.fork()), so the
+environment it is in and its call stack are its alone. the globals and everything reachable from the function and
+its arguments are shared with the spawning code, they are made safe for that before the task starts, see share().
+an error in a task is reported right away like one on the main thread, join() on that task then fails as well.
+tasks don't keep the script alive, whatever is still running when the top level ends is dropped.
+a run of a Program (see JemServer and BatchRunner) stops the tasks it leaves behind when it ends, see Group, so they
+don't go on using the threads and the output of a run that is over.
+
+tasks run on virtual threads when the JVM has them (21 and later), thousands of tasks waiting on channels then
+cost little more than their stacks. older JVMs get a pool of daemon platform threads instead, which works the
+same but is heavier per task. the interpreter is built for release 11, so virtual threads are looked up by reflection.
+ */
+final class JemTask implements NativeObject {
+    private static final ExecutorService EXECUTOR = executor();
+
+    private final CompletableFuture<Object> result = new CompletableFuture<>();
+    private final Group group;
+    //the thread running the task, null before it starts and once it is done
+    private Thread thread;
+
+    private JemTask(Group group)
+    {
+        this.group = group;
+    }
+
+    /*
+    the tasks of one run, shared by its interpreter and all of their forks.
+    end() stops them: one waiting on a channel or a join is interrupted, one that is running fails at its next step
+    (see Interpreter.tick()) and one that hasn't started never does. none of them reports anything after that.
+     */
+    static final class Group {
+        private final Set<JemTask> running = ConcurrentHashMap.newKeySet();
+        private volatile boolean ended = false;
+
+        boolean ended()
+        {
+            return ended;
+        }
+
+        void end()
+        {
+            ended = true;
+            for(JemTask task : running) task.interrupt();
+        }
+    }
+
+    private static ExecutorService executor()
+    {
+        try{
+            Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService)virtual.invoke(null);
+        }catch(ReflectiveOperationException e){
+            AtomicInteger threads = new AtomicInteger();
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task,"jem-task-"+threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    static boolean virtualThreads()
+    {
+        //the fallback is the only pool of platform threads
+        return !(EXECUTOR instanceof ThreadPoolExecutor);
+    }
+
+    static JemTask spawn(Interpreter parent, Token keyword, JemCallable callee, Object[] arguments)
+    {
+        share(parent,callee);
+        share(parent,arguments);
+        Interpreter interpreter = parent.fork();
+        JemTask task = new JemTask(interpreter.tasks);
+        task.group.running.add(task);
+        EXECUTOR.execute(() -> task.run(interpreter,keyword,callee,arguments));
+        return task;
+    }
+
+    static void execute(Runnable work)
+    {
+        //runs something that isn't a spawned call on the threads tasks run on, see HttpServer
+        EXECUTOR.execute(work);
+    }
+
+    static void share(Interpreter parent, Object... values)
+    {
+        //everything another thread can reach through variables is shared before it starts
+        share(parent.globals);
+        for(Object value : values) share(value);
+    }
+
+    static void share(Object value)
+    {
+        /*
+        makes a value and everything reachable from it safe to use from another thread: environments and the
+        fields of instances get concurrent maps, see Environment.share(). called on every path a value takes to
+        another thread: the arguments of a spawn, a parallel operation or an http handler, what a task returns,
+        a channel send and a store into a map. whatever is stored later into a shared environment, instance or
+        array is shared by the store, so a value that reached another thread stays safe for as long as it lives.
+        functions bring their closure along, classes their methods and superclass, instances their class and fields,
+        arrays their elements and modules their globals. strings, numbers and natives are safe as they are.
+        a list of what is left to do rather than recursion, a long chain of instances can't overflow the stack.
+         */
+        if(value == null || value instanceof String || value instanceof Double || value instanceof Boolean) return;
+        ArrayDeque<Object> pending = new ArrayDeque<>();
+        pending.add(value);
+        Object next;
+        while((next = pending.poll()) != null){
+            if(next instanceof Environment) ((Environment)next).share(pending);
+            else if(next instanceof JemFunction) pending.add(((JemFunction)next).closure());
+            else if(next instanceof JemInstance) ((JemInstance)next).share(pending);
+            else if(next instanceof JemClass) ((JemClass)next).share(pending);
+            else if(next instanceof JemArray) ((JemArray)next).share(pending);
+            else if(next instanceof JemModule) pending.add(((JemModule)next).globals());
+        }
+    }
+
+    private void run(Interpreter interpreter, Token keyword, JemCallable callee, Object[] arguments)
+    {
+        synchronized(this){
+            thread = Thread.currentThread();
+        }
+        try{
+            if(group.ended()) throw new RuntimeError(keyword,"The run this task belongs to has ended.");
+            Object value;
+            try{
+                value = callee.callN(interpreter,arguments);
+            }finally{
+                //before the result is out, so whoever joins the task can spend what it didn't
+                interpreter.retire();
+            }
+            //whoever joins the task may hand it on to yet another thread
+            share(value);
+            result.complete(value);
+        }catch(RuntimeError error){
+            //natives leave the token out, the spawn is the closest thing to where it happened
+            if(!group.ended()) interpreter.reporter.runtimeError(error.token != null ? error : new RuntimeError(keyword,error.getMessage()));
+            result.completeExceptionally(error);
+        }catch(StackOverflowError error){
+            if(!group.ended()) interpreter.reporter.runtimeError(new RuntimeError(keyword,"Stack overflow in a spawned task."));
+            result.completeExceptionally(error);
+        }catch(Throwable error){
+            result.completeExceptionally(error);
+            throw error;
+        }finally{
+            group.running.remove(this);
+            synchronized(this){
+                thread = null;
+            }
+            //an interrupt from end() that came too late must not reach what the pool runs next on this thread
+            Thread.interrupted();
+        }
+    }
+
+    private synchronized void interrupt()
+    {
+        if(thread != null) thread.interrupt();
+    }
+
+    Object join()
+    {
+        try{
+            return result.get();
+        }catch(ExecutionException e){
+            throw new RuntimeError(null,"The task failed.");
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new RuntimeError(null,"Interrupted while waiting for a task.");
+        }
+    }
+
+    @Override
+    public Object get(Token name)
+    {
+        switch(name.lexeme){
+            case "join": return new NativeLibraries.Native("task.join",0,(interpreter,args) -> join());
+            case "isDone": return new NativeLibraries.Native("task.isDone",0,(interpreter,args) -> result.isDone());
+            default: throw new RuntimeError(name,"Tasks have no property '"+name.lexeme+"'.");
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "<task>";
+    }
+}
@@ -0,0 +1,169 @@
+package interpreter;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+the native math library.
+each constant is a global function, the resolver also marks calls to them so the interpreter can
+compute the result straight from the argument values (see Interpreter.callIntrinsic()).
+sin, cos and the other plain trig names work in degrees like they always have, the ...Rad versions work in radians.
+ */
+enum MathIntrinsic implements JemCallable {
+    SIN("sin",1),
+    COS("cos",1),
+    TAN("tan",1),
+    ASIN("asin",1),
+    ACOS("acos",1),
+    ATAN("atan",1),
+    ATAN2("atan2",2),
+    SIN_RAD("sinRad",1),
+    COS_RAD("cosRad",1),
+    TAN_RAD("tanRad",1),
+    ASIN_RAD("asinRad",1),
+    ACOS_RAD("acosRad",1),
+    ATAN_RAD("atanRad",1),
+    ATAN2_RAD("atan2Rad",2),
+    RADIANS("radians",1),
+    DEGREES("degrees",1),
+    SQRT("sqrt",1),
+    CBRT("cbrt",1),
+    ABS("abs",1),
+    SIGN("sign",1),
+    FLOOR("floor",1),
+    CEIL("ceil",1),
+    ROUND("round",1),
+    EXP("exp",1),
+    LOG("log",1),
+    LOG10("log10",1),
+    POW("pow",2),
+    HYPOT("hypot",2),
+    MAX("Max",2),
+    MIN("Min",2),
+    FMA("fma",3);
+
+    private static final Map<String, MathIntrinsic> byName = new HashMap<>();
+    static {
+        for(MathIntrinsic intrinsic : values()){
+            byName.put(intrinsic.jemName,intrinsic);
+        }
+    }
+    final String jemName;
+    private final int arity;
+    MathIntrinsic(String jemName, int arity)
+    {
+        this.jemName = jemName;
+        this.arity = arity;
+    }
+    static MathIntrinsic named(String name)
+    {
+        return byName.get(name);
+    }
+
+    /*
+    one switch per arity rather than a body per constant, that would be a class per constant to load
+    before the first script runs.
+     */
+    double apply(double a)
+    {
+        switch(this){
+            case SIN: return Math.sin(Math.toRadians(a));
+            case COS: return Math.cos(Math.toRadians(a));
+            case TAN: return Math.tan(Math.toRadians(a));
+            case ASIN: return Math.toDegrees(Math.asin(a));
+            case ACOS: return Math.toDegrees(Math.acos(a));
+            case ATAN: return Math.toDegrees(Math.atan(a));
+            case SIN_RAD: return Math.sin(a);
+            case COS_RAD: return Math.cos(a);
+            case TAN_RAD: return Math.tan(a);
+            case ASIN_RAD: return Math.asin(a);
+            case ACOS_RAD: return Math.acos(a);
+            case ATAN_RAD: return Math.atan(a);
+            case RADIANS: return Math.toRadians(a);
+            case DEGREES: return Math.toDegrees(a);
+            case SQRT: return Math.sqrt(a);
+            case CBRT: return Math.cbrt(a);
+            case ABS: return Math.abs(a);
+            case SIGN: return Math.signum(a);
+            case FLOOR: return Math.floor(a);
+            case CEIL: return Math.ceil(a);
+            case ROUND: return round(a);
+            case EXP: return Math.exp(a);
+            case LOG: return Math.log(a);
+            case LOG10: return Math.log10(a);
+            default: throw wrongArity();
+        }
+    }
+    private RuntimeError wrongArity()
+    {
+        //the resolver and the arity check keep every call on the apply() of its arity, this is the safety net
+        return new RuntimeError(null,"'"+jemName+"' takes "+arity+(arity == 1 ? " argument." : " arguments."));
+    }
+    private static double round(double a)
+    {
+        //halves round up like in most languages, Math.rint would round them to the even neighbour
+        double floor = Math.floor(a);
+        return a-floor >= 0.5 ? floor+1 : floor;
+    }
+    double apply(double a, double b)
+    {
+        switch(this){
+            case ATAN2: return Math.toDegrees(Math.atan2(a,b));
+            case ATAN2_RAD: return Math.atan2(a,b);
+            case POW: return Math.pow(a,b);
+            case HYPOT: return Math.hypot(a,b);
+            case MAX: return Math.max(a,b);
+            case MIN: return Math.min(a,b);
+            default: throw wrongArity();
+        }
+    }
+    double apply(double a, double b, double c)
+    {
+        switch(this){
+            case FMA: return Math.fma(a,b,c);
+            default: throw wrongArity();
+        }
+    }
+
+    @Override
+    public int arity()
+    {
+        return arity;
+    }
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments)
+    {
+        switch(arity){
+            case 1: return call1(interpreter,arguments.get(0));
+            case 2: return call2(interpreter,arguments.get(0),arguments.get(1));
+            default: return call3(interpreter,arguments.get(0),arguments.get(1),arguments.get(2));
+        }
+    }
+    @Override
+    public Object call1(Interpreter interpreter, Object a)
+    {
+        return apply(number(a));
+    }
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b)
+    {
+        return apply(number(a),number(b));
+    }
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c)
+    {
+        return apply(number(a),number(b),number(c));
+    }
+    private double number(Object value)
+    {
+        //no token here, the interpreter reports it at the call's closing paren
+        if(value instanceof Double) return (double)value;
+        throw new RuntimeError(null,"Arguments to '"+jemName+"' must be numbers.");
+    }
+    @Override
+    public String toString()
+    {
+        return "<native fn>";
+    }
+}
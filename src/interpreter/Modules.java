@@ -0,0 +1,145 @@
+package interpreter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/*
+the modules a program can import, each is loaded the first time it is imported and shared after that.
+native libraries are only known by name here, nothing of a library is built before someone imports it.
+any other name is a script, name.jem, looked for in the directory of the running script and then in the
+directories listed in -Djem.path. it is scanned, parsed, resolved and run once, its globals are what it exports.
+
+there is one registry per run, the tasks of the run share it. the lock only guards the map of entries: the first
+import of a name puts an entry in and loads the module outside the lock, so the top level of a module can spawn
+tasks that import other modules and join them. a task that imports a module still loading waits for it.
+ */
+final class Modules {
+    private static final class Entry {
+        final CompletableFuture<JemModule> module = new CompletableFuture<>();
+        //the thread running the module's top level, importing the module again from there is a cycle
+        final Thread loader = Thread.currentThread();
+    }
+
+    //guarded by the lock on this
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final List<Path> searchPath = new ArrayList<>();
+
+    Modules(Path scriptDirectory)
+    {
+        //looked in before the jem.path directories
+        if(scriptDirectory != null) searchPath.add(scriptDirectory);
+        String path = System.getProperty("jem.path");
+        if(path != null){
+            for(String directory : path.split(File.pathSeparator)){
+                if(!directory.isEmpty()) searchPath.add(Paths.get(directory));
+            }
+        }
+    }
+
+    boolean isNative(String name)
+    {
+        return name.equals("math") || name.equals("string") || name.equals("io") || name.equals("concurrent")
+                || name.equals("array") || name.equals("events")
+                || name.equals("http");
+    }
+    private static JemModule library(String name)
+    {
+        //builds a native library, null when there is none of that name
+        switch(name){
+            case "math": return NativeLibraries.math();
+            case "string": return NativeLibraries.string();
+            case "io": return NativeLibraries.io();
+            case "concurrent": return NativeLibraries.concurrent();
+            case "array": return NativeLibraries.array();
+            case "events": return NativeLibraries.events();
+            case "http": return NativeLibraries.http();
+            default: return null;
+        }
+    }
+    synchronized void loaded(JemModule module)
+    {
+        //a module that came back from a snapshot, later imports of it get this one
+        if(entries.containsKey(module.name)) return;
+        Entry entry = new Entry();
+        entry.module.complete(module);
+        entries.put(module.name,entry);
+    }
+    JemModule load(Interpreter interpreter, Token name)
+    {
+        /*
+        tasks share the modules of the interpreter that spawned them, so a module is still only loaded once
+        when several of them import it at the same time.
+         */
+        Entry entry;
+        boolean first = false;
+        synchronized(this){
+            entry = entries.get(name.lexeme);
+            if(entry == null){
+                entry = new Entry();
+                entries.put(name.lexeme,entry);
+                first = true;
+            }
+        }
+        if(!first) return await(entry,name);
+        try{
+            JemModule module = library(name.lexeme);
+            if(module == null) module = interpreter.runModule(name.lexeme,compile(name,interpreter.reporter));
+            entry.module.complete(module);
+            return module;
+        }catch(RuntimeException | Error e){
+            //the next import tries again, like the first one did
+            synchronized(this){
+                entries.remove(name.lexeme);
+            }
+            entry.module.completeExceptionally(e);
+            throw e;
+        }
+    }
+    private static JemModule await(Entry entry, Token name)
+    {
+        if(!entry.module.isDone() && entry.loader == Thread.currentThread()){
+            throw new RuntimeError(name,"Module '"+name.lexeme+"' imports itself.");
+        }
+        try{
+            return entry.module.get();
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new RuntimeError(name,"Interrupted while waiting for module '"+name.lexeme+"' to load.");
+        }catch(ExecutionException e){
+            //the thread that loaded it reported why
+            throw new RuntimeError(name,"Module '"+name.lexeme+"' failed to load.");
+        }
+    }
+    private List<Stmt> compile(Token name, Reporter reporter)
+    {
+        Path file = find(name.lexeme+".jem");
+        if(file == null) throw new RuntimeError(name,"Can't find module '"+name.lexeme+"'.");
+        List<Stmt> statements;
+        try{
+            statements = Jem.compileFile(file,reporter);
+        }catch(IOException e){
+            throw new RuntimeError(name,"Can't read module '"+name.lexeme+"': "+e.getMessage());
+        }
+        //the errors themselves were reported while compiling
+        if(statements == null) throw new RuntimeError(name,"Module '"+name.lexeme+"' has errors.");
+        return statements;
+    }
+    private Path find(String fileName)
+    {
+        List<Path> directories = searchPath.isEmpty() ? List.of(Paths.get("")) : searchPath;
+        for(Path directory : directories){
+            Path file = directory.resolve(fileName);
+            if(Files.isRegularFile(file)) return file;
+        }
+        return null;
+    }
+}
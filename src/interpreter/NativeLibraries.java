@@ -0,0 +1,343 @@
+package interpreter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+the libraries a script can import by name, see Modules.
+each method builds its library when it is first imported, so a script only pays for the ones it uses.
+argument errors are thrown without a token like MathIntrinsic does, the interpreter reports them at the call.
+ */
+final class NativeLibraries {
+    private NativeLibraries()
+    {
+    }
+
+    //the arity of a native that takes any number of arguments, see Interpreter.checkArity()
+    static final int VARIADIC = -1;
+
+    interface Body {
+        Object call(Interpreter interpreter, List<Object> arguments);
+    }
+    static final class Native implements JemCallable {
+        //library.name, enough to find the function again after a snapshot, see Snapshot
+        final String qualifiedName;
+        private final int arity;
+        private final Body body;
+        Native(String qualifiedName, int arity, Body body)
+        {
+            this.qualifiedName = qualifiedName;
+            this.arity = arity;
+            this.body = body;
+        }
+        @Override
+        public int arity() {
+            return arity;
+        }
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            return body.call(interpreter,arguments);
+        }
+        @Override
+        public String toString(){
+            return "<native fn "+qualifiedName+">";
+        }
+    }
+    private static final class Library {
+        private final String name;
+        private final Environment members = new Environment();
+        Library(String name)
+        {
+            this.name = name;
+        }
+        void define(String member, int arity, Body body)
+        {
+            members.define(member,new Native(name+"."+member,arity,body));
+        }
+        void constant(String member, Object value)
+        {
+            members.define(member,value);
+        }
+        JemModule module()
+        {
+            return new JemModule(name,members);
+        }
+    }
+
+    static JemModule math()
+    {
+        //the same functions the math intrinsics offer as globals, plus the constants
+        Library library = new Library("math");
+        for(MathIntrinsic intrinsic : MathIntrinsic.values()){
+            library.constant(intrinsic.jemName,intrinsic);
+        }
+        library.constant("pi",Math.PI);
+        library.constant("e",Math.E);
+        return library.module();
+    }
+
+    static JemModule string()
+    {
+        Library library = new Library("string");
+        library.define("length",1,(interpreter,args) -> (double)string(args,0).length());
+        library.define("charAt",2,(interpreter,args) -> {
+            String text = string(args,0);
+            int index = index(args,1);
+            if(index < 0 || index >= text.length()) throw new RuntimeError(null,"Index out of range.");
+            return interpreter.allocate(String.valueOf(text.charAt(index)));
+        });
+        library.define("substring",3,(interpreter,args) -> {
+            String text = string(args,0);
+            int from = index(args,1);
+            int to = index(args,2);
+            if(from < 0 || to > text.length() || from > to) throw new RuntimeError(null,"Index out of range.");
+            return interpreter.allocate(text.substring(from,to));
+        });
+        library.define("indexOf",2,(interpreter,args) -> (double)string(args,0).indexOf(string(args,1)));
+        library.define("contains",2,(interpreter,args) -> string(args,0).contains(string(args,1)));
+        library.define("startsWith",2,(interpreter,args) -> string(args,0).startsWith(string(args,1)));
+        library.define("endsWith",2,(interpreter,args) -> string(args,0).endsWith(string(args,1)));
+        library.define("replace",3,(interpreter,args) ->
+                interpreter.allocate(string(args,0).replace(string(args,1),string(args,2))));
+        library.define("upper",1,(interpreter,args) -> interpreter.allocate(string(args,0).toUpperCase()));
+        library.define("lower",1,(interpreter,args) -> interpreter.allocate(string(args,0).toLowerCase()));
+        library.define("trim",1,(interpreter,args) -> interpreter.allocate(string(args,0).trim()));
+        library.define("from",1,(interpreter,args) -> interpreter.allocate(interpreter.stringify(args.get(0))));
+        library.define("toNumber",1,(interpreter,args) -> {
+            //nil when the text is not a number
+            try{
+                return Double.parseDouble(string(args,0).trim());
+            }catch(NumberFormatException e){
+                return null;
+            }
+        });
+        return library.module();
+    }
+
+    static JemModule io()
+    {
+        Library library = new Library("io");
+        library.define("readFile",1,(interpreter,args) -> {
+            try{
+                return interpreter.allocate(new String(Files.readAllBytes(Paths.get(string(args,0))),StandardCharsets.UTF_8));
+            }catch(IOException e){
+                throw new RuntimeError(null,"Can't read '"+args.get(0)+"': "+e.getMessage());
+            }
+        });
+        library.define("writeFile",2,(interpreter,args) -> write(args,StandardOpenOption.TRUNCATE_EXISTING));
+        library.define("appendFile",2,(interpreter,args) -> write(args,StandardOpenOption.APPEND));
+        library.define("exists",1,(interpreter,args) -> Files.exists(Paths.get(string(args,0))));
+        //the input of the run is only wrapped once someone reads from it
+        BufferedReader[] input = new BufferedReader[1];
+        library.define("readLine",0,(interpreter,args) -> {
+            try{
+                if(input[0] == null) input[0] = new BufferedReader(new InputStreamReader(interpreter.reporter.in));
+                return interpreter.allocate(input[0].readLine());
+            }catch(IOException e){
+                throw new RuntimeError(null,"Can't read input: "+e.getMessage());
+            }
+        });
+        library.define("write",1,(interpreter,args) -> {
+            interpreter.reporter.out.print(interpreter.stringify(args.get(0)));
+            return null;
+        });
+        library.define("error",1,(interpreter,args) -> {
+            interpreter.reporter.err.println(interpreter.stringify(args.get(0)));
+            return null;
+        });
+        //what followed the script on the command line
+        library.define("argumentCount",0,(interpreter,args) -> (double)interpreter.arguments().size());
+        library.define("argument",1,(interpreter,args) -> {
+            List<String> arguments = interpreter.arguments();
+            int index = index(args,0);
+            if(index < 0 || index >= arguments.size()) throw new RuntimeError(null,"There is no argument "+index+".");
+            return arguments.get(index);
+        });
+        return library.module();
+    }
+    private static Object write(List<Object> args, StandardOpenOption mode)
+    {
+        try{
+            Files.write(Paths.get(string(args,0)),string(args,1).getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE,StandardOpenOption.WRITE,mode);
+            return null;
+        }catch(IOException e){
+            throw new RuntimeError(null,"Can't write '"+args.get(0)+"': "+e.getMessage());
+        }
+    }
+
+    static JemModule concurrent()
+    {
+        //channels and shared state for tasks started with spawn, see Channel and JemTask
+        Library library = new Library("concurrent");
+        library.define("channel",1,(interpreter,args) -> {
+            //nil for a channel without a limit
+            if(args.get(0) == null) return new Channel(Integer.MAX_VALUE);
+            int capacity = index(args,0);
+            if(capacity < 1) throw new RuntimeError(null,"A channel holds at least one value, use nil for no limit.");
+            return new Channel(capacity);
+        });
+        //select(a, b, ...) takes any number of channels
+        library.define("select",VARIADIC,(interpreter,args) -> {
+            if(args.isEmpty()) throw new RuntimeError(null,"Select needs at least one channel.");
+            Channel[] channels = new Channel[args.size()];
+            for(int i = 0; i < channels.length; i++){
+                if(!(args.get(i) instanceof Channel)) throw new RuntimeError(null,"Argument "+(i+1)+" must be a channel.");
+                channels[i] = (Channel)args.get(i);
+            }
+            Object[] selected = Channel.select(channels);
+            return selected == null ? null : new Selected((Channel)selected[0],selected[1]);
+        });
+        library.define("sleep",1,(interpreter,args) -> {
+            try{
+                Thread.sleep(index(args,0));
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new RuntimeError(null,"Interrupted while sleeping.");
+            }
+            return null;
+        });
+        //state many tasks change at once without a channel, see JemMap and JemCounter
+        library.define("map",0,(interpreter,args) -> new JemMap());
+        library.define("counter",0,(interpreter,args) -> new JemCounter());
+        library.constant("virtualThreads",JemTask.virtualThreads());
+        return library.module();
+    }
+    static JemModule array()
+    {
+        //arrays and ranges and the operations that run a function over them on all cores, see JemArray and Parallel
+        Library library = new Library("array");
+        library.define("of",VARIADIC,(interpreter,args) -> {
+            interpreter.allocate(null,Budget.ARRAY_BYTES+Budget.ELEMENT_BYTES*args.size());
+            return new JemArray(args.toArray());
+        });
+        library.define("make",2,(interpreter,args) -> {
+            int length = index(args,0);
+            if(length < 0) throw new RuntimeError(null,"An array can't have a negative length.");
+            //charged before the elements are allocated, so a length past the budget never is
+            interpreter.allocate(null,Budget.ARRAY_BYTES+Budget.ELEMENT_BYTES*(long)length);
+            Object[] elements = new Object[length];
+            Arrays.fill(elements,args.get(1));
+            return new JemArray(elements);
+        });
+        library.define("range",2,(interpreter,args) -> new JemArray.Range(index(args,0),index(args,1)));
+        library.define("parallelMap",2,(interpreter,args) ->
+                Parallel.map(interpreter,sequence(args,0),callable(args,1)));
+        library.define("parallelFilter",2,(interpreter,args) ->
+                Parallel.filter(interpreter,sequence(args,0),callable(args,1)));
+        library.define("parallelReduce",3,(interpreter,args) ->
+                Parallel.reduce(interpreter,sequence(args,0),args.get(1),callable(args,2)));
+        library.define("parallelForEach",2,(interpreter,args) -> {
+            Parallel.forEach(interpreter,sequence(args,0),callable(args,1));
+            return null;
+        });
+        return library.module();
+    }
+
+    static JemModule events()
+    {
+        //timers, file reads and sockets that call back into the script once its top level is done, see EventLoop
+        Library library = new Library("events");
+        library.define("setTimeout",2,(interpreter,args) ->
+                interpreter.events().schedule(callable(args,0),number(args,1),false));
+        library.define("setInterval",2,(interpreter,args) ->
+                interpreter.events().schedule(callable(args,0),number(args,1),true));
+        library.define("clear",1,(interpreter,args) -> {
+            if(!(args.get(0) instanceof EventLoop.Timer)) throw new RuntimeError(null,"Argument 1 must be a timer.");
+            interpreter.events().clear((EventLoop.Timer)args.get(0));
+            return null;
+        });
+        library.define("readFile",2,(interpreter,args) -> {
+            interpreter.events().readFile(string(args,0),callable(args,1));
+            return null;
+        });
+        library.define("connect",3,(interpreter,args) ->
+                interpreter.events().connect(string(args,0),index(args,1),callable(args,2)));
+        return library.module();
+    }
+
+    static JemModule http()
+    {
+        //a loopback HTTP server calling a function of the script and a load test for it, see HttpServer and HttpLoad
+        Library library = new Library("http");
+        library.define("start",2,(interpreter,args) -> HttpServer.start(interpreter,index(args,0),callable(args,1)));
+        //start() and then wait until a handler stops the server
+        library.define("serve",2,(interpreter,args) -> {
+            HttpServer.start(interpreter,index(args,0),callable(args,1)).await();
+            return null;
+        });
+        library.define("load",4,(interpreter,args) -> HttpLoad.run(index(args,0),string(args,1),index(args,2),index(args,3)));
+        return library.module();
+    }
+
+    //what select() returns, the channel that had a value and the value it gave
+    private static final class Selected implements NativeObject {
+        private final Channel channel;
+        private final Object value;
+        Selected(Channel channel, Object value)
+        {
+            this.channel = channel;
+            this.value = value;
+        }
+        @Override
+        public Object get(Token name)
+        {
+            switch(name.lexeme){
+                case "channel": return channel;
+                case "value": return value;
+                default: throw new RuntimeError(name,"Select results have no property '"+name.lexeme+"'.");
+            }
+        }
+        @Override
+        public String toString()
+        {
+            return "<selected>";
+        }
+    }
+
+    private static String string(List<Object> args, int index)
+    {
+        Object value = args.get(index);
+        if(value instanceof String) return (String)value;
+        throw new RuntimeError(null,"Argument "+(index+1)+" must be a string.");
+    }
+    static void checkArity(String operation, JemCallable function, int arity)
+    {
+        //for functions a native calls later on, the interpreter only checks the arity of calls in the script
+        if(function.arity() >= 0 && function.arity() != arity){
+            throw new RuntimeError(null,"The function given to "+operation+" must take "+arity+
+                    (arity == 1 ? " argument" : " arguments")+" but takes "+function.arity()+".");
+        }
+    }
+    private static JemSequence sequence(List<Object> args, int index)
+    {
+        Object value = args.get(index);
+        if(value instanceof JemSequence) return (JemSequence)value;
+        throw new RuntimeError(null,"Argument "+(index+1)+" must be an array or a range.");
+    }
+    private static JemCallable callable(List<Object> args, int index)
+    {
+        Object value = args.get(index);
+        if(value instanceof JemCallable) return (JemCallable)value;
+        throw new RuntimeError(null,"Argument "+(index+1)+" must be a function.");
+    }
+    private static double number(List<Object> args, int index)
+    {
+        Object value = args.get(index);
+        if(value instanceof Double) return (double)value;
+        throw new RuntimeError(null,"Argument "+(index+1)+" must be a number.");
+    }
+    private static int index(List<Object> args, int index)
+    {
+        Object value = args.get(index);
+        if(value instanceof Double && (double)value == Math.rint((double)value)) return (int)(double)value;
+        throw new RuntimeError(null,"Argument "+(index+1)+" must be a whole number.");
+    }
+}
@@ -0,0 +1,9 @@
+package interpreter;
+
+/*
+a value made by the interpreter rather than by a class in the script, like a module, a task or a channel.
+its properties are looked up by name like those of an instance, methods come back as natives ready to call.
+ */
+interface NativeObject {
+    Object get(Token name);
+}
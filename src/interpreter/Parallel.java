@@ -0,0 +1,174 @@
+package interpreter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/*
+the parallel operations of the array library: parallelMap, parallelFilter, parallelReduce and parallelForEach
+over an array or a range (see JemSequence).
+
+the work runs on the common ForkJoinPool. a chunk of the indexes is cut in half for as long as it is bigger than
+the grain and the worker has few of its own chunks waiting to be stolen, so idle workers always find something
+to take while a busy pool stops splitting early and leaves big chunks that cost little to schedule.
+each chunk that runs the function does so in an Interpreter of its own (see Interpreter.fork()), the environment
+and call stack of one worker are never seen by another. the function's closure, the globals and the source with
+what it holds are shared like they are for a spawned task, see JemTask.share(). a range holds nothing to share.
+
+map and filter keep the order of the source. reduce folds every chunk starting from the identity and then
+combines the chunks left to right with the same function, so the function has to be associative and the identity
+has to leave a value unchanged for the result to match a plain loop.
+the first error in the function ends the operation with that error, chunks already running finish first.
+ */
+final class Parallel {
+    private Parallel()
+    {
+    }
+
+    //chunks a worker may keep queued before it stops splitting, see ForkJoinTask.getSurplusQueuedTaskCount()
+    private static final int SURPLUS = 3;
+    //how many chunks per worker the smallest chunk still leaves when the pool is idle
+    private static final int CHUNKS_PER_WORKER = 64;
+
+    private abstract static class Job {
+        final Interpreter parent;
+        final JemSequence source;
+        final JemCallable function;
+        final int grain;
+        Job(Interpreter parent, JemSequence source, JemCallable function)
+        {
+            this.parent = parent;
+            this.source = source;
+            this.function = function;
+            int workers = ForkJoinPool.getCommonPoolParallelism();
+            this.grain = Math.max(1,source.length()/(workers*CHUNKS_PER_WORKER));
+        }
+        //runs the function over from..to in the given interpreter
+        abstract Object leaf(Interpreter interpreter, int from, int to);
+        //puts the results of two neighbouring chunks together, left before right
+        Object combine(Object left, Object right)
+        {
+            return null;
+        }
+        Object run()
+        {
+            return ForkJoinPool.commonPool().invoke(new Chunk(this,0,source.length()));
+        }
+    }
+
+    private static final class Chunk extends RecursiveTask<Object> {
+        private final Job job;
+        private final int from;
+        private final int to;
+        Chunk(Job job, int from, int to)
+        {
+            this.job = job;
+            this.from = from;
+            this.to = to;
+        }
+        @Override
+        protected Object compute()
+        {
+            if(to-from > job.grain && getSurplusQueuedTaskCount() <= SURPLUS){
+                int middle = (from+to) >>> 1;
+                Chunk right = new Chunk(job,middle,to);
+                right.fork();
+                Object left = new Chunk(job,from,middle).compute();
+                return job.combine(left,right.join());
+            }
+            Interpreter worker = job.parent.fork();
+            try{
+                return job.leaf(worker,from,to);
+            }finally{
+                worker.retire();
+            }
+        }
+    }
+
+    static JemArray map(Interpreter interpreter, JemSequence source, JemCallable function)
+    {
+        NativeLibraries.checkArity("parallelMap",function,1);
+        JemTask.share(interpreter,function,source);
+        Object[] results = new Object[source.length()];
+        interpreter.allocate(null,Budget.ARRAY_BYTES+Budget.ELEMENT_BYTES*results.length);
+        new Job(interpreter,source,function){
+            @Override
+            Object leaf(Interpreter worker, int from, int to)
+            {
+                for(int i = from; i < to; i++) results[i] = function.call1(worker,source.at(i));
+                return null;
+            }
+        }.run();
+        //every chunk was joined before run() returned, so their writes to results are seen here
+        return new JemArray(results);
+    }
+
+    static JemArray filter(Interpreter interpreter, JemSequence source, JemCallable function)
+    {
+        NativeLibraries.checkArity("parallelFilter",function,1);
+        JemTask.share(interpreter,function,source);
+        Object kept = new Job(interpreter,source,function){
+            @Override
+            Object leaf(Interpreter worker, int from, int to)
+            {
+                List<Object> kept = new ArrayList<>();
+                for(int i = from; i < to; i++){
+                    Object value = source.at(i);
+                    if(Interpreter.isTruthy(function.call1(worker,value))) kept.add(value);
+                }
+                return kept;
+            }
+            @Override
+            @SuppressWarnings("unchecked")
+            Object combine(Object left, Object right)
+            {
+                ((List<Object>)left).addAll((List<Object>)right);
+                return left;
+            }
+        }.run();
+        @SuppressWarnings("unchecked")
+        List<Object> values = (List<Object>)kept;
+        interpreter.allocate(null,Budget.ARRAY_BYTES+Budget.ELEMENT_BYTES*values.size());
+        return new JemArray(values);
+    }
+
+    static Object reduce(Interpreter interpreter, JemSequence source, Object identity, JemCallable function)
+    {
+        NativeLibraries.checkArity("parallelReduce",function,2);
+        JemTask.share(interpreter,function,source,identity);
+        return new Job(interpreter,source,function){
+            @Override
+            Object leaf(Interpreter worker, int from, int to)
+            {
+                Object accumulator = identity;
+                for(int i = from; i < to; i++) accumulator = function.call2(worker,accumulator,source.at(i));
+                return accumulator;
+            }
+            @Override
+            Object combine(Object left, Object right)
+            {
+                Interpreter worker = parent.fork();
+                try{
+                    return function.call2(worker,left,right);
+                }finally{
+                    worker.retire();
+                }
+            }
+        }.run();
+    }
+
+    static void forEach(Interpreter interpreter, JemSequence source, JemCallable function)
+    {
+        NativeLibraries.checkArity("parallelForEach",function,1);
+        JemTask.share(interpreter,function,source);
+        new Job(interpreter,source,function){
+            @Override
+            Object leaf(Interpreter worker, int from, int to)
+            {
+                for(int i = from; i < to; i++) function.call1(worker,source.at(i));
+                return null;
+            }
+        }.run();
+    }
+}
@@ -1,4 +1,5 @@
 package interpreter;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -6,15 +7,29 @@ import static interpreter.TokenTypes.*;
 public class Parser {
     /*
         The parser consumes a flat sequence of tokens instead of characters.
-        We store the list of tokens and use a current to point to the next token
+        We pull tokens from the token stream as we go and use a current to point to the next token.
+        a Token object is only asked for when one goes into the tree or an error message
          */
     private static class ParseError extends RuntimeException {} //simple sentinel class we use to unwind the parser
-    private final List<Token> tokens;
+    private final TokenStream tokens;
     private int current = 0;
+    /*
+    with lazy bodies, function and method bodies are only skipped over, counting braces.
+    the body keeps where it is in the source and is parsed the first time it is needed, see DeferredBody.
+    errors the scanner finds are still reported right away, syntax errors inside a body only once it is parsed.
+     */
+    private final boolean lazyBodies;
+    private final Reporter reporter;
 
-    Parser(List<Token> tokens)
+    Parser(TokenStream tokens, Reporter reporter)
+    {
+        this(tokens,false,reporter);
+    }
+    Parser(TokenStream tokens, boolean lazyBodies, Reporter reporter)
     {
         this.tokens = tokens;
+        this.lazyBodies = lazyBodies;
+        this.reporter = reporter;
     }
     List<Stmt> parse() {
         /*
@@ -39,6 +54,7 @@ public class Parser {
         try{
             if(match(CLASS)) return classDeclaration(); //classes
             if(match(FUNCTION)) return function("function");
+            if(match(IMPORT)) return importDeclaration();
             //parsing happens here
             if(match(VAR))  return varDeclaration(); //checks if its a var declaration
             //else bumps up in precedence to statement
@@ -50,7 +66,8 @@ public class Parser {
     }
     private Stmt classDeclaration()
     {
-        Token name = consume(IDENTIFIER,"Expect class name.");
+        consume(IDENTIFIER,"Expect class name.");
+        Token name = previous();
         Expr.Variable superclass = null;
         if (match(LESS)){
             consume(IDENTIFIER,"Expect superclass name.");
@@ -67,6 +84,14 @@ public class Parser {
 
         return new Stmt.Class(name,superclass , methods);
     }
+    private Stmt importDeclaration()
+    {
+        //import name; binds the module called name to a variable of the same name
+        consume(IDENTIFIER,"Expect module name.");
+        Token name = previous();
+        consume(SEMICOLON,"Expect ';' after module name.");
+        return new Stmt.Import(name);
+    }
     private Stmt statement()
     {
         if(match(IF)) return ifStatement();
@@ -156,7 +181,8 @@ public class Parser {
     //varDeclaration method
     private Stmt varDeclaration()
     {
-        Token name = consume(IDENTIFIER, "Expect variable name.");
+        consume(IDENTIFIER, "Expect variable name.");
+        Token name = previous();
 
         Expr initializer = null;
         if(match(EQUAL)){
@@ -187,7 +213,8 @@ public class Parser {
         return new Stmt.Expression(expr);
     }
     private Stmt.Function function(String kind){
-        Token name = consume(IDENTIFIER, "Expect "+ kind + " name.");
+        consume(IDENTIFIER, "Expect "+ kind + " name.");
+        Token name = previous();
         consume(LEFT_PARAM, "Expect '(' after "+kind+" name.");
         List<Token> parameters = new ArrayList<>();
         if(!check(RIGHT_PARAM)){
@@ -196,9 +223,8 @@ public class Parser {
                 {
                     error(peek(),"Can't have more than 255 parameters.");
                 }
-                parameters.add(
-                        consume(IDENTIFIER, "Expect parameter name.")
-                );
+                consume(IDENTIFIER, "Expect parameter name.");
+                parameters.add(previous());
 
             }while(match(COMMA));
         }
@@ -206,9 +232,53 @@ public class Parser {
 
         //we parse the body
         consume(LEFT_BRACE, "Expect '{' before "+kind+" body.");
+        if(lazyBodies) return new Stmt.Function(name,parameters,skipBody(name));
         List<Stmt> body = block();
         return new Stmt.Function(name,parameters,body);
     }
+    private Stmt.Function.Body skipBody(Token name)
+    {
+        //the '{' is consumed, skip to the matching '}' and remember the range in between
+        int from = tokens.start(current-1);
+        int line = tokens.line(current-1);
+        int depth = 1;
+        while(!isAtEnd()){
+            TokenTypes type = tokens.type(current);
+            advance();
+            if(type == LEFT_BRACE) depth++;
+            else if(type == RIGHT_BRACE && --depth == 0) break;
+        }
+        if(depth > 0) throw error(peek(),"Expect '}' after block.");
+        return new DeferredBody(name,tokens.source(),from,tokens.end(current-1),line,reporter);
+    }
+    private static final class DeferredBody implements Stmt.Function.Body {
+        private final Token name;
+        private final ByteBuffer source;
+        private final int from;
+        private final int to;
+        private final int line;
+        private final Reporter reporter;
+
+        DeferredBody(Token name, ByteBuffer source, int from, int to, int line, Reporter reporter)
+        {
+            this.name = name;
+            this.source = source;
+            this.from = from;
+            this.to = to;
+            this.line = line;
+            this.reporter = reporter;
+        }
+        @Override
+        public List<Stmt> load() {
+            //bodies nested in this one are left for later as well
+            Reporter errors = reporter.forLoad();
+            Parser parser = new Parser(new Scanner(source,from,to,line,errors).tokens(),true,errors);
+            parser.consume(LEFT_BRACE,"Expect '{' before body.");
+            List<Stmt> body = parser.block();
+            if(errors.hadError) throw new RuntimeError(name,"Can't call '"+name.lexeme+"', its body has errors.");
+            return body;
+        }
+    }
     // {} block
     private List<Stmt> block()
     {
@@ -233,11 +303,12 @@ public class Parser {
         if we find a =, we parse the right-hand side
         and then wrap it all up in an assignment expression tree node.
          */
-        Expr expr = or();
+        Expr expr = parsePrecedence(PREC_OR);
 
         if(match(EQUAL))
         {
-            Token equals = previous();
+            //tokens don't stay around, so take the '=' now if it is going to be reported
+            Token equals = expr instanceof Expr.Variable || expr instanceof Expr.Get ? null : previous();
             Expr value = assignment();
             if (expr instanceof Expr.Variable)
             {
@@ -253,101 +324,161 @@ public class Parser {
         }
         return expr;
     }
-    //this code parses a series of OR expressions
-    private Expr or()
-    {
-        Expr expr = and();
+    /*
+    everything below assignment is parsed by precedence climbing (a Pratt parser).
+    instead of one method per precedence level the parser looks the current token up in static tables indexed by
+    TokenTypes.ordinal(): what to do when the token starts an expression (PREFIX), what to do when it follows one
+    (INFIX), and how tightly it binds as an infix operator (PRECEDENCE).
+    the grammar and the trees are the same as before:
+    logic_or   → logic_and ( "or" logic_and )* ;
+    logic_and  → equality ( "and" equality )* ;
+    equality   → comparison ( ( "!=" | "==" ) comparison )* ;
+    comparison → term ( ( ">" | ">=" | "<" | "<=" ) term )* ;
+    term       → factor ( ( "-" | "+" ) factor )* ;
+    factor     → unary ( ( "/" | "*" | "%" | "^" ) unary )* ;
+    unary      → ( "!" | "-" ) unary | call ;
+    call       → primary ( "(" arguments? ")" | "." IDENTIFIER )* | "spawn" call ;
+     */
+    //tokens that are no infix operator have precedence 0 and always end the loop in parsePrecedence()
+    private static final int PREC_OR = 1;
+    private static final int PREC_AND = 2;
+    private static final int PREC_EQUALITY = 3;
+    private static final int PREC_COMPARISON = 4;
+    private static final int PREC_TERM = 5;
+    private static final int PREC_FACTOR = 6;
+    private static final int PREC_UNARY = 7;
+    private static final int PREC_CALL = 8;
 
-        while(match(OR))
-        {
-            Token operator = previous();
-            Expr right = and();
-            expr = new Expr.Logical(expr,operator,right);
-        }
-        return expr;
-    }
-    private Expr and()
-    {
-        Expr expr = equality();
-        while(match(AND))
-        {
-            Token operator = previous();
-            Expr right = equality();
-            expr = new Expr.Logical(expr,operator,right);
-        }
-        return expr;
-    }
     /*
-    equality → comparison ( ( "!=" | "==" ) comparison )* ;
-     translate expression grammar to java code
-     the expression rule simply expands to equality
+    the rules are numbers rather than method references, each method reference would be a class spun up at
+    runtime the first time the parser is loaded, which costs short scripts more than the whole parse.
      */
-    private Expr equality()
-    {
-        Expr expr = comparison();
+    private static final byte GROUPING = 1;
+    private static final byte UNARY = 2;
+    private static final byte LITERAL = 3;
+    private static final byte SUPER_EXPRESSION = 4;
+    private static final byte THIS_EXPRESSION = 5;
+    private static final byte VARIABLE = 6;
+    private static final byte BINARY = 7;
+    private static final byte LOGICAL = 8;
+    private static final byte CALL = 9;
+    private static final byte PROPERTY = 10;
+    private static final byte SPAWN_EXPRESSION = 11;
 
-        while(match(BANG_EQUAL,EQUAL_EQUAL)){
-            Token operator = previous();
-            Expr right = comparison();
-            expr = new Expr.Binary(expr,operator,right);
-        }
-        return expr;
+    private static final byte[] PREFIX = new byte[TokenTypes.values().length];
+    private static final byte[] INFIX = new byte[TokenTypes.values().length];
+    private static final int[] PRECEDENCE = new int[TokenTypes.values().length];
+    static {
+        prefix(LEFT_PARAM, GROUPING);
+        prefix(MINUS, UNARY);
+        prefix(BANG, UNARY);
+        prefix(NUMBER, LITERAL);
+        prefix(STRING, LITERAL);
+        prefix(FALSE, LITERAL);
+        prefix(TRUE, LITERAL);
+        prefix(NIL, LITERAL);
+        prefix(SUPER, SUPER_EXPRESSION);
+        prefix(THIS, THIS_EXPRESSION);
+        prefix(IDENTIFIER, VARIABLE);
+        prefix(SPAWN, SPAWN_EXPRESSION);
+
+        infix(OR, PREC_OR, LOGICAL);
+        infix(AND, PREC_AND, LOGICAL);
+        infix(BANG_EQUAL, PREC_EQUALITY, BINARY);
+        infix(EQUAL_EQUAL, PREC_EQUALITY, BINARY);
+        infix(GREATER, PREC_COMPARISON, BINARY);
+        infix(GREATER_EQUAL, PREC_COMPARISON, BINARY);
+        infix(LESS, PREC_COMPARISON, BINARY);
+        infix(LESS_EQUAL, PREC_COMPARISON, BINARY);
+        infix(PLUS, PREC_TERM, BINARY);
+        infix(MINUS, PREC_TERM, BINARY);
+        infix(STAR, PREC_FACTOR, BINARY);
+        infix(SLASH, PREC_FACTOR, BINARY);
+        infix(MODULUS, PREC_FACTOR, BINARY);
+        infix(POWER, PREC_FACTOR, BINARY);
+        infix(LEFT_PARAM, PREC_CALL, CALL);
+        infix(DOT, PREC_CALL, PROPERTY);
+    }
+    private static void prefix(TokenTypes type, byte rule)
+    {
+        PREFIX[type.ordinal()] = rule;
+    }
+    private static void infix(TokenTypes type, int precedence, byte rule)
+    {
+        INFIX[type.ordinal()] = rule;
+        PRECEDENCE[type.ordinal()] = precedence;
     }
-    private Expr comparison()
+
+    private Expr parsePrecedence(int precedence)
     {
-        // comparison  → term ( ( ">" | ">=" | "<" | "<=" ) term )* ;
-        Expr expr = term();
+        /*
+        parses an expression whose operators all bind at least as tightly as the given precedence.
+        the token we are at has to be able to start an expression, after that we keep folding the expression
+        so far into infix operators for as long as they bind tightly enough.
+         */
+        byte prefix = PREFIX[tokens.type(current).ordinal()];
+        if(prefix == 0) throw error(peek(), "Expect Expression");
+        advance();
+        Expr expr = prefix(prefix);
 
-        while(match(GREATER,GREATER_EQUAL,LESS,LESS_EQUAL))
-        {
-            Token operator = previous();
-            Expr right = term();
-            expr = new Expr.Binary(expr,operator,right);
+        for(;;){
+            int type = tokens.type(current).ordinal();
+            if(PRECEDENCE[type] < precedence) break;
+            advance();
+            expr = infix(INFIX[type],expr);
         }
         return expr;
     }
-    private Expr term()
+    private Expr prefix(byte rule)
     {
-        // term → factor ( ( "-" | "+" ) factor )* ;
-        Expr expr = factor();
-        while(match(PLUS,MINUS))
-        {
-            Token operator = previous();
-            Expr right = factor();
-            expr = new Expr.Binary(expr, operator, right);
+        switch(rule){
+            case GROUPING: return grouping();
+            case UNARY: return unary();
+            case LITERAL: return literal();
+            case SUPER_EXPRESSION: return superExpression();
+            case THIS_EXPRESSION: return thisExpression();
+            case SPAWN_EXPRESSION: return spawnExpression();
+            default: return variable();
         }
-        return expr;
     }
-    private Expr factor()
+    private Expr infix(byte rule, Expr left)
     {
-        // factor  → unary ( ( "/" | "*" ) unary )* ;
-        Expr expr = unary();
-        while (match(STAR,SLASH,MODULUS,POWER))
-        {
-            Token operator = previous();
-            Expr right = unary();
-            expr = new Expr.Binary(expr,operator,right);
+        switch(rule){
+            case BINARY: return binary(left);
+            case LOGICAL: return logical(left);
+            case CALL: return finishCall(left);
+            default: return property(left);
         }
-        return expr;
+    }
+    private Expr binary(Expr left)
+    {
+        //binary operators are left associative, so the right operand only takes operators that bind tighter
+        Token operator = previous();
+        Expr right = parsePrecedence(PRECEDENCE[operator.type.ordinal()]+1);
+        return new Expr.Binary(left,operator,right);
+    }
+    private Expr logical(Expr left)
+    {
+        Token operator = previous();
+        Expr right = parsePrecedence(PRECEDENCE[operator.type.ordinal()]+1);
+        return new Expr.Logical(left,operator,right);
     }
     private Expr unary()
     {
-        /* unary  → ( "!" | "-" ) unary | primary ;
-        we look at the current token to see how to parse.
-        if it's a ! or - we must have a unary expression
-        in that case we grab the token and recursively call unary() to parse the operand.
+        /* unary  → ( "!" | "-" ) unary | call ;
+        we already consumed the ! or -, the operand is another unary expression or a call
         wrap all that in unary parse tree
          */
-        if(match(BANG,MINUS))
-        {
-            Token operator = previous();
-            Expr right = unary();
-            return new Expr.Unary(operator,right);
-        }
-        return call();
+        Token operator = previous();
+        Expr right = parsePrecedence(PREC_UNARY);
+        return new Expr.Unary(operator,right);
     }
     private Expr finishCall(Expr callee)
     {
+        /*
+        each time we see a (, we parse the call expression using previously parsed expression as the callee.
+        the returned expression becomes the new expr and the loop in parsePrecedence() checks if the result is itself called.
+         */
         List<Expr> arguments = new ArrayList<>();
         if(!check(RIGHT_PARAM)){
             do{
@@ -357,83 +488,76 @@ public class Parser {
                 arguments.add(expression());
             }while(match(COMMA));
         }
-        Token paren = consume(RIGHT_PARAM, "Expect ')' after arguments");
+        consume(RIGHT_PARAM, "Expect ')' after arguments");
+        Token paren = previous();
 
         return new Expr.Call(callee,paren,arguments);
     }
-    private Expr call()
+    private Expr property(Expr object)
     {
-        /*
-        first we parse the a primary expression, the "left operand" to the call
-        then each time we see a (, we call finishCall() to parse the call expression using previously parsed expression as the callee.
-        the returned expression becomes the new expr and we loop to see if the result is itself called.
-         */
-        Expr expr = primary();
-
-        while(true){
-            if(match(LEFT_PARAM))
-            {
-                expr =finishCall(expr);
-            }else if(match(DOT)){
-                Token name = consume(IDENTIFIER,"Expect property name after '.'.");
-                expr = new Expr.Get(expr,name);
-            }else{
-                break;
-            }
-        }
-        return expr;
+        consume(IDENTIFIER,"Expect property name after '.'.");
+        Token name = previous();
+        return new Expr.Get(object,name);
     }
-    private Expr primary()
+    private Expr literal()
     {
-        if(match(FALSE)) return new Expr.Literal(false);
-        if(match(TRUE)) return new Expr.Literal(true);
-        if(match(NIL)) return new Expr.Literal(null);
-
-        if(match(NUMBER,STRING)){
-            return new Expr.Literal(previous().literal);
-        }
-        if(match(SUPER))
-        {
-            Token keyword = previous();
-            consume(DOT, "Expect '.' after 'super'.");
-            Token method = consume(IDENTIFIER,
-                    "Expect superclass method name");
-            return new Expr.Super(keyword,method);
-        }
-        if(match(THIS)) return new Expr.This(previous());
-        if(match(IDENTIFIER))
-        {
-            return new Expr.Variable(previous());
-        }
-        if(match(LEFT_PARAM)){
-            /*
-            after we match a left paran and parse the expression inside it
-            we must find a right paran else it's an error.
-             */
-            Expr expr = expression();
-            consume(RIGHT_PARAM, "Expect ')' after expression");
-            return new Expr.Grouping(expr);
+        switch(tokens.type(current-1)){
+            case FALSE: return new Expr.Literal(false);
+            case TRUE: return new Expr.Literal(true);
+            case NIL: return new Expr.Literal(null);
+            default: return new Expr.Literal(tokens.literal(current-1));
         }
-        throw error(peek(), "Expect Expression");
+    }
+    private Expr superExpression()
+    {
+        Token keyword = previous();
+        consume(DOT, "Expect '.' after 'super'.");
+        consume(IDENTIFIER,
+                "Expect superclass method name");
+        Token method = previous();
+        return new Expr.Super(keyword,method);
+    }
+    private Expr spawnExpression()
+    {
+        //spawn takes a call and nothing else, "spawn f" would have nothing to run
+        Token keyword = previous();
+        Expr call = parsePrecedence(PREC_CALL);
+        if(!(call instanceof Expr.Call)) throw error(keyword,"Expect a call after 'spawn'.");
+        return new Expr.Spawn(keyword,(Expr.Call)call);
+    }
+    private Expr thisExpression()
+    {
+        return new Expr.This(previous());
+    }
+    private Expr variable()
+    {
+        return new Expr.Variable(previous());
+    }
+    private Expr grouping()
+    {
+        /*
+        after we match a left paran and parse the expression inside it
+        we must find a right paran else it's an error.
+         */
+        Expr expr = expression();
+        consume(RIGHT_PARAM, "Expect ')' after expression");
+        return new Expr.Grouping(expr);
     }
 
-    private boolean match(TokenTypes... types)
+    private boolean match(TokenTypes type)
     {
         /*
-        This method checks if the current token is of any of the given types
+        This method checks if the current token is of the given type
         if so, it will consume the token and return true.
         Otherwise false.
          */
-        for(TokenTypes type:types)
-        {
-            if(check(type)){
-                advance();
-                return true;
-            }
+        if(check(type)){
+            advance();
+            return true;
         }
         return false;
     }
-    private Token consume(TokenTypes type,String message)
+    private void consume(TokenTypes type,String message)
     {
         /*
         similar to match,checks if next token is of expected type
@@ -441,8 +565,12 @@ public class Parser {
         consumes and advances
         else,
         reports error.
+        the few callers that need the token take it from previous()
          */
-        if(check(type)) return advance();
+        if(check(type)) {
+            advance();
+            return;
+        }
 
         throw error(peek(),message);
     }
@@ -453,14 +581,13 @@ public class Parser {
         it doesn't consume any tokens like match
          */
         if(isAtEnd()) return false;
-        return peek().type == type;
+        return tokens.type(current) == type;
     }
 
-    private Token advance()
+    private void advance()
     {
-        //this methods consumes the current token and returns it
+        //this methods consumes the current token
         if(!isAtEnd()) current++;
-        return previous();
     }
     /*
     fucntions below are handy functions
@@ -469,21 +596,21 @@ public class Parser {
     private boolean isAtEnd()
     {
         //checks if we're running out of tokens to parse
-        return peek().type == EOF;
+        return tokens.type(current) == EOF;
     }
     private Token previous()
     {
         //returns the most recent consumed token
-        return tokens.get(current-1);
+        return tokens.token(current-1);
     }
     private Token peek()
     {
         //returns the current token we have yet to consume
-        return tokens.get(current);
+        return tokens.token(current);
     }
     private ParseError error(Token token, String message)
     {
-        Jem.error(token,message);
+        reporter.error(token,message);
         return new ParseError();
     }
 
@@ -493,9 +620,9 @@ public class Parser {
 
         while(!isAtEnd())
         {
-            if(previous().type == SEMICOLON) return;
+            if(tokens.type(current-1) == SEMICOLON) return;
 
-            switch (peek().type)
+            switch (tokens.type(current))
             {
                 case CLASS:
                 case FUNCTION:
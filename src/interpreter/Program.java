@@ -0,0 +1,80 @@
+package interpreter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+a script compiled once and run any number of times, by any number of threads at once.
+
+the program is the resolved tree, every variable already knows its depth (see Resolver) and nothing about a
+run is kept in it. the only things written to the tree while it runs are the inline cache of each call, which
+holds declarations and nothing of any one run (see CallSite), and what each super expression found last, which is
+held weakly so it keeps nothing of a run alive (see Interpreter.SuperTarget).
+everything a run changes belongs to the Interpreter made for it: the globals, the environments of the calls, the
+imported modules, and its Reporter, so its output and errors are its own. no lock is taken while a script runs.
+
+    Program program = Program.compile(script, System.err);
+    if (program != null) exitCode = program.run(out, err, in, arguments);
+ */
+public final class Program {
+    private final List<Stmt> statements;
+    //where modules the script imports are looked for first, null for source that did not come from a file
+    private final Path directory;
+
+    private Program(List<Stmt> statements, Path directory)
+    {
+        this.statements = statements;
+        this.directory = directory;
+    }
+
+    public static Program compile(Path script, PrintStream err) throws IOException
+    {
+        //null when the script has errors, they have been written to err
+        return compile(script,new Reporter(err,err,InputStream.nullInputStream()));
+    }
+
+    static Program compile(Path script, Reporter reporter) throws IOException
+    {
+        return compile(Jem.readSource(script),script.toAbsolutePath().getParent(),reporter);
+    }
+
+    static Program compile(ByteBuffer source, Path directory, Reporter reporter)
+    {
+        List<Stmt> statements = Jem.compileSource(source,reporter);
+        if(statements == null) return null;
+        //copied out once, a FlatAst view would decode the statements again for every run
+        return new Program(Collections.unmodifiableList(new ArrayList<>(statements)),directory);
+    }
+
+    public int run(PrintStream out, PrintStream err, InputStream in, List<String> arguments)
+    {
+        return run(new Reporter(out,err,in),arguments);
+    }
+
+    int run(Reporter reporter, List<String> arguments)
+    {
+        //the exit code of the run, 0, 65 or 70 like a run from the command line
+        Interpreter interpreter = null;
+        try{
+            interpreter = new Interpreter(reporter);
+            interpreter.setScriptDirectory(directory);
+            interpreter.setArguments(arguments);
+            interpreter.interpret(statements);
+        }catch(Throwable e){
+            //a stack overflow or running out of memory ends this run, not the threads running others
+            reporter.err.println("Internal error: "+e);
+            return 70;
+        }finally{
+            //tasks the script left running would write to a reporter nobody reads any more
+            if(interpreter != null) interpreter.tasks.end();
+        }
+        reporter.err.flush();
+        return reporter.exitCode();
+    }
+}
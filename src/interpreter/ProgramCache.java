@@ -0,0 +1,165 @@
+package interpreter;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+a directory of compiled programs, so an unchanged script is not scanned, parsed and resolved on every run.
+a program is stored as its FlatAst, in a file named after the SHA-256 of the script's bytes and VERSION.
+a changed script hashes to a different name and is simply compiled and stored again, old entries are left
+for whoever cleans the directory. a new entry is encoded and written by a thread of its own while the script
+already runs, see storeLater().
+a server (see JemServer) also keeps the trees of the programs it used last in memory, ready to run.
+one tree is shared by every request that runs the same script, at the same time too, see Program.
+ */
+final class ProgramCache {
+    /*
+    goes into every key. change it whenever the tree, the resolver or the flat encoding changes what ends up
+    in a cached file (that includes the order of MathIntrinsic, the encoding stores ordinals),
+    so files from an older interpreter are never read.
+     */
+    private static final String VERSION = "jem-flat-3";
+    private static final String SUFFIX = ".jemc";
+
+    private final Path directory;
+    private final Map<String, List<Stmt>> recent;
+
+    ProgramCache(Path directory, int inMemory)
+    {
+        //directory may be null to only keep programs in memory, inMemory may be 0 to only use the directory
+        this.directory = directory;
+        this.recent = inMemory == 0 ? null : new LinkedHashMap<String, List<Stmt>>(16,0.75f,true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<Stmt>> eldest)
+            {
+                return size() > inMemory;
+            }
+        };
+    }
+
+    static String key(ByteBuffer source)
+    {
+        try{
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(VERSION.getBytes(StandardCharsets.UTF_8));
+            //hash a duplicate, update() moves the buffer's position to the end
+            digest.update(source.duplicate());
+            StringBuilder hex = new StringBuilder();
+            for(byte b : digest.digest()){
+                hex.append(Character.forDigit((b >> 4) & 0xf,16)).append(Character.forDigit(b & 0xf,16));
+            }
+            return hex.toString();
+        }catch(NoSuchAlgorithmException e){
+            //every Java platform has to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    boolean persistent()
+    {
+        return directory != null;
+    }
+
+    List<Stmt> recent(String key)
+    {
+        //the tree kept in memory, null when there is none
+        if(recent == null) return null;
+        synchronized(recent){
+            return recent.get(key);
+        }
+    }
+
+    List<Stmt> remember(String key, List<Stmt> statements)
+    {
+        /*
+        returns the tree to run. kept in memory it is copied out of a FlatAst view first, so every run shares
+        the same nodes and the bodies decoded by one run are there for the next. when two threads compiled the
+        same script at once the tree of the first one to get here is kept and returned to both.
+         */
+        if(recent == null) return statements;
+        List<Stmt> shared = Collections.unmodifiableList(new ArrayList<>(statements));
+        synchronized(recent){
+            List<Stmt> earlier = recent.putIfAbsent(key,shared);
+            return earlier != null ? earlier : shared;
+        }
+    }
+
+    FlatAst load(String key)
+    {
+        //null when there is no usable entry, a damaged file is as good as a missing one
+        if(directory == null) return null;
+        Path file = directory.resolve(key+SUFFIX);
+        try(FileChannel channel = FileChannel.open(file,StandardOpenOption.READ)){
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
+            FlatAst program = FlatAst.readFrom(buffer);
+            if(buffer.hasRemaining()) return null;
+            return program;
+        }catch(NoSuchFileException e){
+            return null;
+        }catch(IOException | RuntimeException e){
+            System.err.println("Ignoring unreadable cache entry "+file+": "+e);
+            return null;
+        }
+    }
+
+    void storeLater(String key, List<Stmt> statements)
+    {
+        /*
+        encoding a big program and writing it out takes about as long as compiling it did, so the run that
+        compiled it doesn't wait for that. the encoder only reads the parts of the tree the interpreter never
+        writes to. the thread isn't a daemon, a run that ends first leaves the JVM up until the entry is written.
+        one that exits with an error code doesn't wait, the next run then compiles the script again.
+         */
+        Thread writer = new Thread(() -> store(key,FlatAst.encode(statements)),"jem-cache-store");
+        writer.setPriority(Thread.MIN_PRIORITY);
+        writer.start();
+    }
+
+    void store(String key, FlatAst program)
+    {
+        /*
+        written to a temporary file first and moved into place, so a run that reads the entry at the same time
+        sees either no file or a complete one. failing to store only costs the next run a compile.
+         */
+        Path temporary = null;
+        try{
+            Files.createDirectories(directory);
+            temporary = Files.createTempFile(directory,key,".tmp");
+            try(OutputStream file = Files.newOutputStream(temporary);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file,1 << 16))){
+                program.writeTo(out);
+            }
+            Path target = directory.resolve(key+SUFFIX);
+            try{
+                Files.move(temporary,target,StandardCopyOption.ATOMIC_MOVE,StandardCopyOption.REPLACE_EXISTING);
+            }catch(AtomicMoveNotSupportedException e){
+                Files.move(temporary,target,StandardCopyOption.REPLACE_EXISTING);
+            }
+        }catch(IOException e){
+            System.err.println("Could not write to the program cache in "+directory+": "+e);
+            try{
+                if(temporary != null) Files.deleteIfExists(temporary);
+            }catch(IOException ignored){
+                //nothing more to do about it
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package interpreter;
+
+import java.io.InputStream;
+import java.io.PrintStream;
+
+/*
+one execution of a script: where its output goes, where it reads input from and whether it had errors.
+the command line has a single one for the process, the server (see JemServer) makes one per request,
+so runs that happen side by side never see each other's output or errors.
+ */
+final class Reporter {
+    final PrintStream out;
+    final PrintStream err;
+    final InputStream in;
+    volatile boolean hadError = false;
+    volatile boolean hadRuntimeError = false;
+    //the reporter a load reports through as well, null for one that isn't, see forLoad()
+    private final Reporter parent;
+
+    Reporter(PrintStream out, PrintStream err, InputStream in)
+    {
+        this(out,err,in,null);
+    }
+
+    private Reporter(PrintStream out, PrintStream err, InputStream in, Reporter parent)
+    {
+        this.out = out;
+        this.err = err;
+        this.in = in;
+        this.parent = parent;
+    }
+
+    Reporter forLoad()
+    {
+        /*
+        for parsing or resolving one body that is loaded late (see Parser.DeferredBody), its errors go to the same
+        place but its hadError only tells about that one body. an earlier body with errors, or one loading on
+        another thread at the same time, doesn't make this one fail. this reporter and the ones it was made from
+        still get hadError set, so the exit code is the same.
+         */
+        return new Reporter(out,err,in,this);
+    }
+
+    void error(int line, String message)
+    {
+        report(line, "", message);
+    }
+
+    void error(Token token, String message)
+    {
+        /*
+        this reports an error at a given token.
+        it shows the token's location and token itself.
+        this will come in handy as we use tokens to track loactions
+         */
+        if (token.type == TokenTypes.EOF) {
+            report(token.line, " at end", message);
+        } else {
+            report(token.line, " at '" + token.lexeme + "'", message);
+        }
+    }
+
+    void runtimeError(RuntimeError error)
+    {
+        //a native called back by the event loop has no call in the script to point at
+        out.println(error.token == null ? error.getMessage() : error.getMessage() +
+                "\n[line " + error.token.line + "]");
+        hadRuntimeError = true;
+    }
+
+    private void report(int line, String where, String message)
+    {
+        err.println(
+                "[line " + line + "] Error" + where + ": " + message
+        );
+        for(Reporter reporter = this; reporter != null; reporter = reporter.parent) reporter.hadError = true;
+    }
+
+    int exitCode()
+    {
+        if (hadError) return 65; //input data was incorrect
+        if (hadRuntimeError) return 70; //internal software error has been detected (non OS related errors).
+        return 0;
+    }
+}
@@ -6,12 +6,26 @@ import java.util.Map;
 import java.util.Stack;
 
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
-    private final Interpreter interpreter ;
     private final Stack<Map<String,Boolean>> scopes = new Stack<>();
     private FunctionType currentFunction = FunctionType.NONE;
-    Resolver(Interpreter  interpreter)
+    private final Reporter reporter;
+    /*
+    the resolver works out, for every variable reference, how many scopes there are between it and the
+    declaration it refers to and stores that in the node itself (the depth field).
+    that way the tree carries everything the interpreter needs and can be encoded as is, see FlatAst.
+     */
+    Resolver(Reporter reporter)
     {
-        this.interpreter = interpreter;
+        this.reporter = reporter;
+    }
+    private Resolver(Stack<Map<String,Boolean>> scopes, FunctionType currentFunction, ClassType currentClass, Reporter reporter)
+    {
+        this.reporter = reporter;
+        for(Map<String,Boolean> scope : scopes){
+            this.scopes.push(new HashMap<>(scope));
+        }
+        this.currentFunction = currentFunction;
+        this.currentClass = currentClass;
     }
     private enum FunctionType {
         NONE,
@@ -40,7 +54,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         define(stmt.name);
         if(stmt.superclass !=null && stmt.name.lexeme.equals(stmt.superclass.name.lexeme))
         {
-            Jem.error(stmt.superclass.name,
+            reporter.error(stmt.superclass.name,
                     "A class can't inherit from itself");
         }
         if(stmt.superclass !=null)
@@ -51,7 +65,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         if(stmt.superclass!=null)
         {
             beginScope();
-            scopes.peek().put("Super",true);
+            scopes.peek().put("super",true);
         }
         beginScope();
         scopes.peek().put("this",true);
@@ -81,6 +95,13 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         return null;
     }
     @Override
+    public Void visitImportStmt(Stmt.Import stmt){
+        //the module is bound like a variable declared with it as the value
+        declare(stmt.name);
+        define(stmt.name);
+        return null;
+    }
+    @Override
     public Void visitIfStmt(Stmt.If stmt){
         resolve(stmt.condition);
         resolve(stmt.thenBranch);
@@ -98,12 +119,12 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     {
         if(currentFunction  == FunctionType.NONE)
         {
-            Jem.error(stmt.keyword, "Can't return from top-level code.");
+            reporter.error(stmt.keyword, "Can't return from top-level code.");
         }
         if(stmt.value!=null)
         {
             if(currentFunction == FunctionType.INITIALIZER){
-                Jem.error(stmt.keyword,
+                reporter.error(stmt.keyword,
                         "Can't return a value from a initializer");
             }
             resolve(stmt.value);
@@ -132,7 +153,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     {
         if(!scopes.isEmpty() &&
                 scopes.peek().get(expr.name.lexeme) == Boolean.FALSE){
-            Jem.error(expr.name,
+            reporter.error(expr.name,
                     "Can't read local variable in it's own initializer");
         }
         resolveLocal(expr,expr.name);
@@ -154,6 +175,14 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     @Override
     public Void visitCallExpr(Expr.Call expr){
         resolve(expr.callee);
+        if(expr.callee instanceof Expr.Variable){
+            //a call to a math intrinsic by its global name can be computed directly, unless a local hides the name
+            Token name = ((Expr.Variable)expr.callee).name;
+            MathIntrinsic intrinsic = MathIntrinsic.named(name.lexeme);
+            if(intrinsic != null && intrinsic.arity() == expr.arguments.size() && !isLocal(name)){
+                expr.intrinsic = intrinsic;
+            }
+        }
 
         for(Expr argument:expr.arguments){
             resolve(argument);
@@ -187,7 +216,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     @Override
     public Void visitSetExpr(Expr.Set expr)
     {
-        resolve(expr.object);
+        resolve(expr.value);
         resolve(expr.object);
         return null;
     }
@@ -196,12 +225,12 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     {
         if(currentClass == ClassType.NONE)
         {
-            Jem.error(expr.keyword,
+            reporter.error(expr.keyword,
                     "Can't use 'super' outside of a class");
         }
         else if(currentClass != ClassType.SUBCLASS)
         {
-            Jem.error(expr.keyword,
+            reporter.error(expr.keyword,
                     "Can't use 'super' in a class with no superclass");
         }
         resolveLocal(expr,expr.keyword);
@@ -212,13 +241,19 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     {
         if(currentClass == ClassType.NONE)
         {
-            Jem.error(expr.keyword,
+            reporter.error(expr.keyword,
                     "Can't use 'this' outside of a class");
         }
         resolveLocal(expr ,expr.keyword);
         return null;
     }
     @Override
+    public Void visitSpawnExpr(Expr.Spawn expr)
+    {
+        resolve(expr.call);
+        return null;
+    }
+    @Override
     public Void visitUnaryExpr(Expr.Unary expr)
     {
         resolve(expr.right);
@@ -238,6 +273,23 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         expr.accept(this);
     }
     private void resolveFunction(Stmt.Function function, FunctionType type)
+    {
+        if(!function.isLoaded()){
+            /*
+            the body has not been parsed yet. it is resolved when it is, against a copy of the scopes as they are
+            right now, so names declared after the function still don't count for it.
+             */
+            Reporter errors = reporter.forLoad();
+            Resolver deferred = new Resolver(scopes,type,currentClass,errors);
+            function.whenLoaded(body -> {
+                deferred.resolveBody(function,body,type);
+                if(errors.hadError) throw new RuntimeError(function.name,"Can't call '"+function.name.lexeme+"', its body has errors.");
+            });
+            return;
+        }
+        resolveBody(function,function.body(),type);
+    }
+    private void resolveBody(Stmt.Function function, List<Stmt> body, FunctionType type)
     {
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
@@ -247,7 +299,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
             declare(param);
             define(param);
         }
-        resolve(function.body);
+        resolve(body);
         endScope();
         currentFunction = enclosingFunction;
     }
@@ -264,7 +316,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
 
         Map<String, Boolean> scope = scopes.peek();
         if(scope.containsKey(name.lexeme)){
-            Jem.error(name,
+            reporter.error(name,
                     "Already varibable with this name in this scope.");
         }
         scope.put(name.lexeme,false);
@@ -275,15 +327,29 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         if(scopes.isEmpty()) return;
         scopes.peek().put(name.lexeme,true); //we set the variable's value in the scope map to true to mark it as fully initialised and available for use.
     }
+    private boolean isLocal(Token name)
+    {
+        for(Map<String, Boolean> scope : scopes){
+            if(scope.containsKey(name.lexeme)) return true;
+        }
+        return false;
+    }
     private void resolveLocal(Expr expr, Token name)
     {
         for(int i = scopes.size()-1;i>=0;i--){
             if(scopes.get(i).containsKey(name.lexeme)){
-                interpreter.resolve(expr,scopes.size()-1-i);
+                setDepth(expr,scopes.size()-1-i);
                 return;
             }
         }
         // not found. Assume it is global
     }
+    private static void setDepth(Expr expr, int depth)
+    {
+        if(expr instanceof Expr.Variable) ((Expr.Variable)expr).depth = depth;
+        else if(expr instanceof Expr.Assign) ((Expr.Assign)expr).depth = depth;
+        else if(expr instanceof Expr.This) ((Expr.This)expr).depth = depth;
+        else if(expr instanceof Expr.Super) ((Expr.Super)expr).depth = depth;
+    }
 }
 
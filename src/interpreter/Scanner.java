@@ -1,53 +1,79 @@
 package interpreter;
-import javax.swing.plaf.nimbus.NimbusLookAndFeel;
-import java.util.ArrayList;
-import java.util.Map;
-import java.util.List;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import static interpreter.TokenTypes.*;
 public class Scanner {
-    private static final Map<String, TokenTypes> keywords;
-    static {
-        keywords = new HashMap<>();
-        keywords.put("and",AND);
-        keywords.put("or",OR);
-        keywords.put("function",FUNCTION);
-        keywords.put("for",FOR);
-        keywords.put("while",WHILE);
-        keywords.put("if",IF);
-        keywords.put("else",ELSE);
-        keywords.put("nil", NIL);
-        keywords.put("return",RETURN);
-        keywords.put("true",TRUE);
-        keywords.put("false",FALSE);
-        keywords.put("var",VAR);
-        keywords.put("print",PRINT);
-    }
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+    /*
+    the source is read as UTF-8 bytes, usually straight out of a memory mapped file.
+    everything the scanner looks for outside of strings and comments is ASCII, and in UTF-8 no byte of a
+    multi-byte character is below 0x80, so scanning byte by byte finds the same tokens as scanning characters.
+    only the lexemes are decoded.
+     */
+    private static final double[] POWERS_OF_TEN = {
+            1e0,1e1,1e2,1e3,1e4,1e5,1e6,1e7,1e8,1e9,1e10,1e11,1e12,1e13,1e14,1e15
+    };
+    private final ByteBuffer source;
+    private final int length;
+    private final TokenStream tokens;
+    private final Reporter reporter;
     private int start = 0; //points to first character in the lexeme.
     private int current =0;//points to current character being considered.
     //start and current are offsets that index the string
     private int line =1;
+    private boolean done = false;
     /*
-    we have raw source code stored in a string
-    and a list ready to be filled with tokens
+    we have raw source code stored in a buffer
+    and a token stream ready to be filled with tokens
      */
-    Scanner(String source)
+    Scanner(String source, Reporter reporter)
     {
+        this(ByteBuffer.wrap(source.getBytes(StandardCharsets.UTF_8)),reporter);
+    }
+    Scanner(ByteBuffer source, Reporter reporter)
+    {
+        this(source,0,source.limit(),1,reporter);
+        //skip a UTF-8 byte order mark
+        if(length >= 3 && (source.get(0) & 0xff) == 0xEF && (source.get(1) & 0xff) == 0xBB && (source.get(2) & 0xff) == 0xBF){
+            current = 3;
+        }
+    }
+    Scanner(ByteBuffer source, int from, int to, int line, Reporter reporter)
+    {
+        //scans only the bytes from..to, which start on the given line. used to come back for a function body later
         this.source = source;
+        this.length = to;
+        this.tokens = new TokenStream(this,source);
+        this.current = from;
+        this.line = line;
+        this.reporter = reporter;
     }
 
-    List<Token> scanTokens(){
-        while(!isAtEnd())
+    boolean isDone()
+    {
+        //true once the EOF token has been added
+        return done;
+    }
+    TokenStream tokens(){
+        //the stream pulls tokens from us as the parser gets to them
+        return tokens;
+    }
+    void scanToken()
+    {
+        //scans until one more token is in the stream, whitespace and comments on the way produce none
+        int scanned = tokens.size();
+        while(tokens.size() == scanned)
         {
+            if(isAtEnd())
+            {
+                tokens.add(EOF,current,0,line,null);
+                done = true;
+                return;
+            }
             start = current;
-            scanToken();
+            scanNext();
         }
-        tokens.add(new Token(EOF,"",null,line));
-        return tokens;
     }
-    private void scanToken()
+    private void scanNext()
     {
         char c = advance();
         switch(c) {
@@ -121,7 +147,9 @@ public class Scanner {
             {
                 identifier();
             } else{//throw an error if that character is not a type of token
-                    Jem.error(line, "Unexpected character");
+                    //a character outside ASCII is reported once, not once for each of its bytes
+                    if(c >= 0x80) while(peek() >= 0x80 && peek() < 0xC0) advance();
+                    reporter.error(line, "Unexpected character");
                     break;
                 }
         }
@@ -129,28 +157,97 @@ public class Scanner {
     private void identifier()
     {
         while(isAlphaNumeric(peek())) advance();
+        addToken(identifierType());
+    }
+    private TokenTypes identifierType()
+    {
         /*
-        check for the keywords map if the identifier is keyword add it
-        or it is a variable name , huh, this doesn't even makes sense
-        hope you understand by looking at the code XD
+        check if the identifier is a keyword or a variable name.
+        keywords are recognised by looking at the characters in place instead of cutting the text out
+        and looking it up in a map, the first one or two characters narrow it down to a single keyword.
          */
-        String text = source.substring(start,current);
-        TokenTypes type = keywords.get(text);
-        if(type == null) type = IDENTIFIER;
-        addToken(type);
+        switch(charAt(start)){
+            case 'a': return keyword(1,"nd",AND);
+            case 'c': return keyword(1,"lass",CLASS);
+            case 'e': return keyword(1,"lse",ELSE);
+            case 'f':
+                if(current-start > 1){
+                    switch(charAt(start+1)){
+                        case 'a': return keyword(2,"lse",FALSE);
+                        case 'o': return keyword(2,"r",FOR);
+                        case 'u': return keyword(2,"nction",FUNCTION);
+                    }
+                }
+                break;
+            case 'i':
+                if(current-start > 1){
+                    switch(charAt(start+1)){
+                        case 'f': return keyword(2,"",IF);
+                        case 'm': return keyword(2,"port",IMPORT);
+                    }
+                }
+                break;
+            case 'n': return keyword(1,"il",NIL);
+            case 'o': return keyword(1,"r",OR);
+            case 'p': return keyword(1,"rint",PRINT);
+            case 'r': return keyword(1,"eturn",RETURN);
+            case 's':
+                if(current-start > 1){
+                    switch(charAt(start+1)){
+                        case 'p': return keyword(2,"awn",SPAWN);
+                        case 'u': return keyword(2,"per",SUPER);
+                    }
+                }
+                break;
+            case 't':
+                if(current-start > 1){
+                    switch(charAt(start+1)){
+                        case 'h': return keyword(2,"is",THIS);
+                        case 'r': return keyword(2,"ue",TRUE);
+                    }
+                }
+                break;
+            case 'v': return keyword(1,"ar",VAR);
+            case 'w': return keyword(1,"hile",WHILE);
+        }
+        return IDENTIFIER;
+    }
+    private TokenTypes keyword(int offset, String rest, TokenTypes type)
+    {
+        //the identifier is the keyword if the rest of it matches exactly
+        if(current-start != offset+rest.length()) return IDENTIFIER;
+        for(int i = 0; i < rest.length(); i++){
+            if(charAt(start+offset+i) != rest.charAt(i)) return IDENTIFIER;
+        }
+        return type;
     }
     private void number()
     {
-        while(isDigit(peek())) advance();
+        /*
+        the digits are added up as we go. with at most 15 of them the whole number fits exactly in a double,
+        and so does the power of ten for the decimal places, so one division gives the correctly rounded value
+        without cutting out the text. longer numbers go through Double.parseDouble().
+         */
+        long digits = charAt(start)-'0';
+        int count = 1;
+        int decimals = 0;
+        while(isDigit(peek())){
+            digits = digits*10 + (advance()-'0');
+            count++;
+        }
 
         //for decimal digit
         if(peek() == '.' && isDigit(peekNext())){
             //consume '.'
           advance();
-          while(isDigit(peek())) advance();
+          while(isDigit(peek())){
+              digits = digits*10 + (advance()-'0');
+              count++;
+              decimals++;
+          }
         }
-        addToken(NUMBER,
-                Double.parseDouble(source.substring(start,current)));
+        double value = count <= 15 ? digits / POWERS_OF_TEN[decimals] : Double.parseDouble(text(start,current));
+        addToken(NUMBER,value);
     }
     private void string()
     {
@@ -161,18 +258,18 @@ public class Scanner {
         }
         if(isAtEnd())
         {
-            Jem.error(line,"Unterminated string value.");
+            reporter.error(line,"Unterminated string value.");
             return;
         }
         advance();
 
-        String value = source.substring(start+1,current-1);
+        String value = text(start+1,current-1);
         addToken(STRING,value);
     }
     private boolean match(char expected)
     {
         if (isAtEnd()) return false;
-        if(source.charAt(current)!=expected)return false;
+        if(charAt(current)!=expected)return false;
 
         current++;
         return true;
@@ -181,12 +278,12 @@ public class Scanner {
     {
         //similar to advance but doesn't consume character
         if (isAtEnd()) return '\0';
-        return source.charAt(current);
+        return charAt(current);
     }
     private char peekNext()
     {
-        if (current+1 >= source.length()) return '\0';
-        return source.charAt(current+1);
+        if (current+1 >= length) return '\0';
+        return charAt(current+1);
     }
     private boolean isAlpha(char c)
     {
@@ -202,20 +299,28 @@ public class Scanner {
     }
     private boolean isAtEnd()
     {
-        return current>=source.length();
+        return current>=length;
     }
     private char advance()
     {
         current++;
-        return source.charAt(current-1);
+        return charAt(current-1);
+    }
+    private char charAt(int index)
+    {
+        //a byte of the source, bytes of non-ASCII characters come out as 0x80 and up
+        return (char)(source.get(index) & 0xff);
+    }
+    private String text(int from, int to)
+    {
+        return tokens.text(from,to);
     }
     private void addToken(TokenTypes type)
     {
-        addToken(type,null);
+        tokens.add(type,start,current-start,line,null);
     }
     private void addToken(TokenTypes type, Object literal)
     {
-        String text = source.substring(start,current);
-        tokens.add(new Token(type,text,literal, line));
+        tokens.add(type,start,current-start,line,literal);
     }
 }
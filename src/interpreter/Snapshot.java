@@ -0,0 +1,529 @@
+package interpreter;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+the globals of a program that has finished running, written to a file so a later run can start from them
+instead of running the same setup code again.
+everything reachable from the globals is written: environments, functions, classes, instances, modules, arrays,
+ranges, concurrent maps and counters.
+each object is written once and referred to by its number, so shared objects and cycles come back as they were.
+the declarations of the functions are written as a FlatAst, their bodies are only decoded when they are called.
+native functions and libraries are written by name and looked up again when the snapshot is read.
+
+the file holds the FlatAst, then a header for every object, enough to create it, and then the variables
+of every environment, the fields of every instance, the elements of every array, the entries of every map and
+the sum of every counter. reading creates all objects first and fills them in after, so it doesn't matter in
+which order objects refer to each other. what a map holds is shared again once all of it is filled in.
+ */
+final class Snapshot {
+    private static final int MAGIC = 0x4a454d53; //JEMS
+    //bump it whenever the layout changes
+    private static final int VERSION = 2;
+
+    private static final byte ENVIRONMENT = 1;
+    private static final byte FUNCTION = 2;
+    private static final byte CLASS = 3;
+    private static final byte INSTANCE = 4;
+    private static final byte SCRIPT_MODULE = 5;
+    private static final byte NATIVE_MODULE = 6;
+    private static final byte NATIVE = 7;
+    private static final byte INTRINSIC = 8;
+    private static final byte ARRAY = 9;
+    private static final byte RANGE = 10;
+    private static final byte MAP = 11;
+    private static final byte COUNTER = 12;
+
+    private static final byte NIL = 0;
+    private static final byte FALSE = 1;
+    private static final byte TRUE = 2;
+    private static final byte NUMBER = 3;
+    private static final byte STRING = 4;
+    private static final byte OBJECT = 5;
+
+    private Snapshot()
+    {
+    }
+
+    static void write(Interpreter interpreter, Path file) throws IOException
+    {
+        new Writer(interpreter).write(file);
+    }
+
+    private static final class Writer {
+        private final Interpreter interpreter;
+        private final Map<Object, Integer> ids = new IdentityHashMap<>();
+        private final List<Object> objects = new ArrayList<>();
+        private final FlatAst declarations = FlatAst.functions();
+        private final Map<JemFunction, Integer> declarationNodes = new IdentityHashMap<>();
+        //what arrays and maps held when they were found, tasks left running can't change what is written
+        private final Map<Object, Object> contents = new IdentityHashMap<>();
+
+        Writer(Interpreter interpreter)
+        {
+            this.interpreter = interpreter;
+        }
+
+        void write(Path file) throws IOException
+        {
+            //the globals are object 0. objects are numbered as they are found, walking the list as it grows
+            id(interpreter.globals);
+            for(int i = 0; i < objects.size(); i++){
+                collect(objects.get(i));
+            }
+            declarations.seal();
+            try(OutputStream stream = Files.newOutputStream(file);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream,1 << 16))){
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                declarations.writeTo(out);
+                out.writeInt(objects.size());
+                for(Object object : objects){
+                    header(out,object);
+                }
+                for(Object object : objects){
+                    if(object instanceof Environment) variables(out,((Environment)object).values());
+                    else if(object instanceof JemInstance) variables(out,((JemInstance)object).fields());
+                    else if(object instanceof JemArray) elements(out,(Object[])contents.get(object));
+                    else if(object instanceof JemMap) entries(out,(Map<?, ?>)contents.get(object));
+                    else if(object instanceof JemCounter) out.writeLong(((JemCounter)object).sum());
+                }
+            }
+        }
+        private int id(Object object)
+        {
+            Integer id = ids.get(object);
+            if(id == null){
+                id = objects.size();
+                objects.add(object);
+                ids.put(object,id);
+            }
+            return id;
+        }
+        private void reference(Object value) throws IOException
+        {
+            //numbers the objects a value refers to, plain values are written in place
+            if(value == null || value instanceof Boolean || value instanceof Double || value instanceof String) return;
+            if(value instanceof Environment || value instanceof JemFunction || value instanceof JemClass
+                    || value instanceof JemInstance || value instanceof JemModule || value instanceof MathIntrinsic
+                    || value instanceof NativeLibraries.Native || value == Interpreter.CLOCK || value == Interpreter.PRINTLN
+                    || value instanceof JemArray || value instanceof JemArray.Range || value instanceof JemMap
+                    || value instanceof JemCounter){
+                id(value);
+                return;
+            }
+            throw new IOException("Can't write "+value+" to a snapshot.");
+        }
+        private void collect(Object object) throws IOException
+        {
+            if(object instanceof Environment){
+                Environment environment = (Environment)object;
+                if(environment.enclosing != null) reference(environment.enclosing);
+                for(Object value : environment.values().values()) reference(value);
+            }else if(object instanceof JemFunction){
+                JemFunction function = (JemFunction)object;
+                declarationNodes.put(function,declarations.add(function.declaration));
+                reference(function.closure());
+            }else if(object instanceof JemClass){
+                JemClass klass = (JemClass)object;
+                if(klass.superclass != null) reference(klass.superclass);
+                for(JemFunction method : klass.methods().values()) reference(method);
+            }else if(object instanceof JemInstance){
+                JemInstance instance = (JemInstance)object;
+                reference(instance.klass());
+                for(Object value : instance.fields().values()) reference(value);
+            }else if(object instanceof JemModule){
+                JemModule module = (JemModule)object;
+                if(!interpreter.modules().isNative(module.name)) reference(module.globals());
+            }else if(object instanceof JemArray){
+                Object[] elements = ((JemArray)object).toArray();
+                contents.put(object,elements);
+                for(Object element : elements) reference(element);
+            }else if(object instanceof JemMap){
+                Map<Object, Object> entries = ((JemMap)object).contents();
+                contents.put(object,entries);
+                for(Map.Entry<Object, Object> entry : entries.entrySet()){
+                    reference(entry.getKey());
+                    reference(entry.getValue());
+                }
+            }
+        }
+        private void header(DataOutputStream out, Object object) throws IOException
+        {
+            if(object instanceof Environment){
+                Environment environment = (Environment)object;
+                out.writeByte(ENVIRONMENT);
+                out.writeInt(environment.enclosing == null ? -1 : ids.get(environment.enclosing));
+            }else if(object instanceof JemFunction){
+                JemFunction function = (JemFunction)object;
+                out.writeByte(FUNCTION);
+                out.writeInt(declarationNodes.get(function));
+                out.writeInt(ids.get(function.closure()));
+                out.writeBoolean(function.isInitializer());
+            }else if(object instanceof JemClass){
+                JemClass klass = (JemClass)object;
+                out.writeByte(CLASS);
+                writeString(out,klass.name);
+                out.writeInt(klass.superclass == null ? -1 : ids.get(klass.superclass));
+                out.writeInt(klass.methods().size());
+                for(Map.Entry<String, JemFunction> method : klass.methods().entrySet()){
+                    writeString(out,method.getKey());
+                    out.writeInt(ids.get(method.getValue()));
+                }
+            }else if(object instanceof JemInstance){
+                out.writeByte(INSTANCE);
+                out.writeInt(ids.get(((JemInstance)object).klass()));
+            }else if(object instanceof JemModule){
+                JemModule module = (JemModule)object;
+                if(interpreter.modules().isNative(module.name)){
+                    out.writeByte(NATIVE_MODULE);
+                    writeString(out,module.name);
+                }else{
+                    out.writeByte(SCRIPT_MODULE);
+                    writeString(out,module.name);
+                    out.writeInt(ids.get(module.globals()));
+                }
+            }else if(object instanceof MathIntrinsic){
+                out.writeByte(INTRINSIC);
+                writeString(out,((MathIntrinsic)object).name());
+            }else if(object instanceof JemArray){
+                out.writeByte(ARRAY);
+                out.writeInt(((Object[])contents.get(object)).length);
+            }else if(object instanceof JemArray.Range){
+                JemArray.Range range = (JemArray.Range)object;
+                out.writeByte(RANGE);
+                out.writeInt(range.from);
+                out.writeInt(range.to);
+            }else if(object instanceof JemMap){
+                out.writeByte(MAP);
+            }else if(object instanceof JemCounter){
+                out.writeByte(COUNTER);
+            }else if(object instanceof NativeLibraries.Native){
+                out.writeByte(NATIVE);
+                writeString(out,((NativeLibraries.Native)object).qualifiedName);
+            }else{
+                out.writeByte(NATIVE);
+                writeString(out,object == Interpreter.CLOCK ? "clock" : "println");
+            }
+        }
+        private void variables(DataOutputStream out, Map<String, Object> variables) throws IOException
+        {
+            out.writeInt(variables.size());
+            for(Map.Entry<String, Object> variable : variables.entrySet()){
+                writeString(out,variable.getKey());
+                value(out,variable.getValue());
+            }
+        }
+        private void elements(DataOutputStream out, Object[] elements) throws IOException
+        {
+            //how many there are is in the header already
+            for(Object element : elements) value(out,element);
+        }
+        private void entries(DataOutputStream out, Map<?, ?> entries) throws IOException
+        {
+            out.writeInt(entries.size());
+            for(Map.Entry<?, ?> entry : entries.entrySet()){
+                value(out,entry.getKey());
+                value(out,entry.getValue());
+            }
+        }
+        private void value(DataOutputStream out, Object value) throws IOException
+        {
+            if(value == null){
+                out.writeByte(NIL);
+            }else if(value instanceof Boolean){
+                out.writeByte((Boolean)value ? TRUE : FALSE);
+            }else if(value instanceof Double){
+                out.writeByte(NUMBER);
+                out.writeDouble((Double)value);
+            }else if(value instanceof String){
+                out.writeByte(STRING);
+                writeString(out,(String)value);
+            }else{
+                out.writeByte(OBJECT);
+                out.writeInt(ids.get(value));
+            }
+        }
+    }
+
+    static void restore(Interpreter interpreter, Path file) throws IOException
+    {
+        //the interpreter goes on with the globals from the snapshot
+        ByteBuffer in;
+        try(FileChannel channel = FileChannel.open(file,StandardOpenOption.READ)){
+            in = channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
+        }
+        try{
+            if(in.getInt() != MAGIC || in.getInt() != VERSION){
+                throw new IOException(file+" is not a snapshot this interpreter can read.");
+            }
+            interpreter.restoreGlobals((Environment)new Reader(interpreter,in).read());
+        }catch(RuntimeException e){
+            //a truncated or damaged file
+            if(e instanceof RuntimeError) throw e;
+            throw new IOException("Can't read snapshot "+file+": "+e,e);
+        }
+    }
+
+    private static final class Reader {
+        private final Interpreter interpreter;
+        private final ByteBuffer in;
+        private FlatAst declarations;
+        //a declaration is decoded once, all functions made from it share it like they did before
+        private final Map<Integer, Stmt.Function> decoded = new HashMap<>();
+        private byte[] kinds;
+        private Object[] objects;
+        //what the headers say, by object number
+        private int[] first;
+        private int[] second;
+        private boolean[] flags;
+        private String[] names;
+        private String[][] methodNames;
+        private int[][] methodIds;
+        //the arrays handed to restored JemArrays, filled in with the variables
+        private Object[][] elements;
+        //the keys and values of restored maps, shared once everything is filled in
+        private final List<Object> entries = new ArrayList<>();
+
+        Reader(Interpreter interpreter, ByteBuffer in)
+        {
+            this.interpreter = interpreter;
+            this.in = in;
+        }
+
+        Object read()
+        {
+            declarations = FlatAst.readFrom(in);
+            int count = in.getInt();
+            kinds = new byte[count];
+            objects = new Object[count];
+            first = new int[count];
+            second = new int[count];
+            flags = new boolean[count];
+            names = new String[count];
+            methodNames = new String[count][];
+            methodIds = new int[count][];
+            elements = new Object[count][];
+            for(int id = 0; id < count; id++){
+                header(id);
+            }
+            //environments and modules first, functions close over environments, classes hold functions
+            for(int id = 0; id < count; id++){
+                if(kinds[id] == ENVIRONMENT) objects[id] = new Environment();
+            }
+            //linked before any function is made, a function finds the globals of its module by following them
+            for(int id = 0; id < count; id++){
+                if(kinds[id] == ENVIRONMENT && first[id] >= 0){
+                    ((Environment)objects[id]).enclosing = (Environment)objects[first[id]];
+                }
+            }
+            for(int id = 0; id < count; id++){
+                create(id);
+            }
+            for(int id = 0; id < count; id++){
+                if(kinds[id] == ENVIRONMENT){
+                    Environment environment = (Environment)objects[id];
+                    int variables = in.getInt();
+                    for(int i = 0; i < variables; i++){
+                        environment.define(readString(in),value());
+                    }
+                    //closures hold on to these, they must never be recycled
+                    environment.capture();
+                }else if(kinds[id] == INSTANCE){
+                    JemInstance instance = (JemInstance)objects[id];
+                    int fields = in.getInt();
+                    for(int i = 0; i < fields; i++){
+                        instance.fields().put(readString(in),value());
+                    }
+                }else if(kinds[id] == ARRAY){
+                    Object[] values = elements[id];
+                    for(int i = 0; i < values.length; i++){
+                        values[i] = value();
+                    }
+                }else if(kinds[id] == MAP){
+                    JemMap map = (JemMap)objects[id];
+                    //a key and a value take a tag byte each at least
+                    int size = count(in,2);
+                    for(int i = 0; i < size; i++){
+                        Object key = value();
+                        Object value = value();
+                        map.restore(key,value);
+                        entries.add(key);
+                        entries.add(value);
+                    }
+                }else if(kinds[id] == COUNTER){
+                    ((JemCounter)objects[id]).add(in.getLong());
+                }
+            }
+            for(Object value : entries){
+                JemTask.share(value);
+            }
+            return objects[0];
+        }
+        private void header(int id)
+        {
+            byte kind = in.get();
+            kinds[id] = kind;
+            switch(kind){
+                case ENVIRONMENT:
+                case INSTANCE:
+                    first[id] = in.getInt();
+                    break;
+                case FUNCTION:
+                    first[id] = in.getInt();
+                    second[id] = in.getInt();
+                    flags[id] = in.get() != 0;
+                    break;
+                case CLASS: {
+                    names[id] = readString(in);
+                    first[id] = in.getInt();
+                    int methods = in.getInt();
+                    methodNames[id] = new String[methods];
+                    methodIds[id] = new int[methods];
+                    for(int i = 0; i < methods; i++){
+                        methodNames[id][i] = readString(in);
+                        methodIds[id][i] = in.getInt();
+                    }
+                    break;
+                }
+                case SCRIPT_MODULE:
+                    names[id] = readString(in);
+                    first[id] = in.getInt();
+                    break;
+                case NATIVE_MODULE:
+                case NATIVE:
+                case INTRINSIC:
+                    names[id] = readString(in);
+                    break;
+                case ARRAY:
+                    //every element takes a tag byte at least, further on in the file
+                    first[id] = count(in,1);
+                    break;
+                case RANGE:
+                    first[id] = in.getInt();
+                    second[id] = in.getInt();
+                    break;
+                case MAP:
+                case COUNTER:
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown object kind "+kind+".");
+            }
+        }
+        private Object create(int id)
+        {
+            if(objects[id] != null) return objects[id];
+            Object object;
+            switch(kinds[id]){
+                case FUNCTION: {
+                    Stmt.Function declaration = decoded.computeIfAbsent(first[id],declarations::functionAt);
+                    object = new JemFunction(declaration,(Environment)objects[second[id]],flags[id]);
+                    break;
+                }
+                case CLASS: {
+                    JemClass superclass = first[id] < 0 ? null : (JemClass)create(first[id]);
+                    Map<String, JemFunction> methods = new HashMap<>();
+                    for(int i = 0; i < methodIds[id].length; i++){
+                        methods.put(methodNames[id][i],(JemFunction)create(methodIds[id][i]));
+                    }
+                    object = new JemClass(names[id],superclass,methods);
+                    break;
+                }
+                case INSTANCE:
+                    object = new JemInstance((JemClass)create(first[id]),0);
+                    break;
+                case SCRIPT_MODULE: {
+                    JemModule module = new JemModule(names[id],(Environment)objects[first[id]]);
+                    interpreter.modules().loaded(module);
+                    object = module;
+                    break;
+                }
+                case NATIVE_MODULE:
+                    object = library(names[id]);
+                    break;
+                case NATIVE:
+                    object = nativeFunction(names[id]);
+                    break;
+                case INTRINSIC:
+                    object = MathIntrinsic.valueOf(names[id]);
+                    break;
+                case ARRAY:
+                    elements[id] = new Object[first[id]];
+                    object = new JemArray(elements[id]);
+                    break;
+                case RANGE:
+                    object = new JemArray.Range(first[id],second[id]);
+                    break;
+                case MAP:
+                    object = new JemMap();
+                    break;
+                case COUNTER:
+                    object = new JemCounter();
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown object kind "+kinds[id]+".");
+            }
+            objects[id] = object;
+            return object;
+        }
+        private JemModule library(String name)
+        {
+            return interpreter.modules().load(interpreter,new Token(TokenTypes.IDENTIFIER,name,null,0));
+        }
+        private Object nativeFunction(String name)
+        {
+            if(name.equals("clock")) return Interpreter.CLOCK;
+            if(name.equals("println")) return Interpreter.PRINTLN;
+            int dot = name.indexOf('.');
+            String member = name.substring(dot+1);
+            return library(name.substring(0,dot)).get(new Token(TokenTypes.IDENTIFIER,member,null,0));
+        }
+        private Object value()
+        {
+            byte tag = in.get();
+            switch(tag){
+                case NIL: return null;
+                case FALSE: return false;
+                case TRUE: return true;
+                case NUMBER: return in.getDouble();
+                case STRING: return readString(in);
+                case OBJECT: return objects[in.getInt()];
+                default: throw new IllegalStateException("Unknown value tag "+tag+".");
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException
+    {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    private static int count(ByteBuffer in, int smallest)
+    {
+        //how many of something follow, each taking at least smallest bytes
+        int count = in.getInt();
+        if(count < 0 || (long)count*smallest > in.remaining()) throw new IllegalStateException("Bad count "+count+".");
+        return count;
+    }
+    private static String readString(ByteBuffer in)
+    {
+        byte[] bytes = new byte[count(in,1)];
+        in.get(bytes);
+        return new String(bytes,StandardCharsets.UTF_8);
+    }
+}
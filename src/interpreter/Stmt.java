@@ -1,6 +1,7 @@
 package interpreter;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 abstract class Stmt {
     interface Visitor<R> {
@@ -9,6 +10,7 @@ abstract class Stmt {
         R visitExpressionStmt(Expression stmt);
         R visitFunctionStmt(Function stmt);
         R visitIfStmt(If stmt);
+        R visitImportStmt(Import stmt);
         R visitPrintStmt(Print stmt);
         R visitReturnStmt(Return stmt);
         R visitVarStmt(Var stmt);
@@ -59,6 +61,13 @@ abstract class Stmt {
             this.name = name;
             this.params = params;
             this.body = body;
+            this.source = null;
+        }
+        Function(Token name , List<Token> params, Body source)  {
+            //the body is only built from source the first time someone asks for it
+            this.name = name;
+            this.params = params;
+            this.source = source;
         }
 
         @Override
@@ -66,9 +75,56 @@ abstract class Stmt {
             return visitor.visitFunctionStmt(this);
         }
 
+        interface Body {
+            List<Stmt> load();
+        }
+        List<Stmt> body()
+        {
+            List<Stmt> statements = body;
+            if(statements == null){
+                synchronized(this){
+                    /*
+                    a body is loaded once, loading it again would report its errors again.
+                    a body with errors keeps the error it failed with, every later call throws that one.
+                     */
+                    statements = body;
+                    if(statements == null){
+                        if(failure != null) throw failure;
+                        try{
+                            statements = source.load();
+                        }catch(RuntimeError error){
+                            failure = error;
+                            throw error;
+                        }finally{
+                            source = null;
+                        }
+                        body = statements;
+                    }
+                }
+            }
+            return statements;
+        }
+        boolean isLoaded()
+        {
+            return body != null;
+        }
+        void whenLoaded(Consumer<List<Stmt>> action)
+        {
+            //runs action on the body right after it is loaded, before anyone gets to see it
+            Body load = source;
+            source = () -> {
+                List<Stmt> statements = load.load();
+                action.accept(statements);
+                return statements;
+            };
+        }
+
         final Token name ;
         final List<Token> params;
-        final List<Stmt> body;
+        private volatile List<Stmt> body;
+        private Body source;
+        //what loading the body failed with, guarded by the lock on this
+        private RuntimeError failure;
     }
     static class If extends Stmt {
         If(Expr condition, Stmt thenBranch, Stmt elseBranch)  {
@@ -86,6 +142,18 @@ abstract class Stmt {
         final Stmt thenBranch;
         final Stmt elseBranch;
     }
+    static class Import extends Stmt {
+        Import(Token name)  {
+            this.name = name;
+        }
+
+        @Override
+        <R> R accept(Visitor<R>  visitor)  {
+            return visitor.visitImportStmt(this);
+        }
+
+        final Token name;
+    }
     static class Print extends Stmt {
         Print(Expr expression)  {
             this.expression = expression;
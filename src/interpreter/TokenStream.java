@@ -0,0 +1,180 @@
+package interpreter;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/*
+the scanner's output, produced on demand as the parser asks for tokens.
+instead of a Token object per token, tokens are kept in parallel arrays: type, start offset and length in
+the source, line and the literal value of numbers and strings.
+the arrays are a small ring, the parser only ever looks at the current token and the one before it,
+so scanning and parsing go hand in hand and tokens behind the parser are overwritten instead of piling up.
+Token objects are only made when the parser needs one for the syntax tree or for an error message, and only
+identifiers, strings and numbers need their text cut out of the source. punctuation and keywords always
+spell the same, so their lexemes are shared constants.
+ */
+final class TokenStream {
+    private static final TokenTypes[] TYPES = TokenTypes.values();
+    private static final String[] LEXEMES = new String[TYPES.length];
+    static {
+        String[][] fixed = {
+                {"LEFT_PARAM","("},{"RIGHT_PARAM",")"},{"LEFT_BRACE","{"},{"RIGHT_BRACE","}"},
+                {"COMMA",","},{"DOT","."},{"MINUS","-"},{"PLUS","+"},{"SEMICOLON",";"},{"SLASH","/"},{"STAR","*"},
+                {"BANG","!"},{"BANG_EQUAL","!="},{"EQUAL","="},{"EQUAL_EQUAL","=="},
+                {"GREATER",">"},{"GREATER_EQUAL",">="},{"LESS","<"},{"LESS_EQUAL","<="},
+                {"AND","and"},{"ELSE","else"},{"FALSE","false"},{"FUNCTION","function"},{"FOR","for"},{"IF","if"},
+                {"NIL","nil"},{"OR","or"},{"PRINT","print"},{"RETURN","return"},{"TRUE","true"},{"VAR","var"},
+                {"WHILE","while"},{"CLASS","class"},{"THIS","this"},{"SUPER","super"},{"IMPORT","import"},{"SPAWN","spawn"},{"EOF",""}
+        };
+        for(String[] entry : fixed){
+            LEXEMES[TokenTypes.valueOf(entry[0]).ordinal()] = entry[1];
+        }
+    }
+    //how many tokens are kept, a power of two so an index can be masked into the ring
+    private static final int CAPACITY = 64;
+    private static final int MASK = CAPACITY-1;
+
+    private final Scanner scanner;
+    private final ByteBuffer source;
+    private final int[] types = new int[CAPACITY];
+    private final int[] starts = new int[CAPACITY];
+    private final int[] lengths = new int[CAPACITY];
+    private final int[] lines = new int[CAPACITY];
+    private final Object[] literals = new Object[CAPACITY];
+    //number of tokens scanned so far, indexes below size-CAPACITY have been overwritten
+    private int size = 0;
+    //every distinct identifier is only turned into a String once, see name()
+    private String[] names = new String[256];
+    private int nameCount = 0;
+
+    TokenStream(Scanner scanner, ByteBuffer source)
+    {
+        this.scanner = scanner;
+        this.source = source;
+    }
+    void add(TokenTypes type, int start, int length, int line, Object literal)
+    {
+        int slot = size & MASK;
+        types[slot] = type.ordinal();
+        starts[slot] = start;
+        lengths[slot] = length;
+        lines[slot] = line;
+        literals[slot] = literal;
+        size++;
+    }
+    int size()
+    {
+        return size;
+    }
+    private int slot(int index)
+    {
+        //the parser never looks further back than the previous token, so anything below size is still in the ring
+        if(index >= size) fill(index);
+        return index & MASK;
+    }
+    private void fill(int index)
+    {
+        /*
+        scan ahead in batches, as far as the ring allows without overwriting the token before index,
+        that keeps the scanner in its own loop for a while instead of coming back for every single token.
+         */
+        int limit = index-1+CAPACITY;
+        while(size < limit && !scanner.isDone()) scanner.scanToken();
+    }
+
+    TokenTypes type(int index)
+    {
+        return TYPES[types[slot(index)]];
+    }
+    Object literal(int index)
+    {
+        return literals[slot(index)];
+    }
+    String lexeme(int index)
+    {
+        int slot = slot(index);
+        int type = types[slot];
+        if(LEXEMES[type] != null) return LEXEMES[type];
+        if(type == TokenTypes.IDENTIFIER.ordinal()) return name(starts[slot],lengths[slot]);
+        return text(starts[slot],starts[slot]+lengths[slot]);
+    }
+    ByteBuffer source()
+    {
+        return source;
+    }
+    int start(int index)
+    {
+        //where the token starts in the source
+        return starts[slot(index)];
+    }
+    int end(int index)
+    {
+        int slot = slot(index);
+        return starts[slot]+lengths[slot];
+    }
+    int line(int index)
+    {
+        return lines[slot(index)];
+    }
+    Token token(int index)
+    {
+        int slot = slot(index);
+        return new Token(TYPES[types[slot]],lexeme(index),literals[slot],lines[slot]);
+    }
+
+    String text(int from, int to)
+    {
+        if(source.hasArray()){
+            return new String(source.array(),source.arrayOffset()+from,to-from,StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[to-from];
+        ByteBuffer slice = source.duplicate();
+        slice.position(from);
+        slice.get(bytes);
+        return new String(bytes,StandardCharsets.UTF_8);
+    }
+    private String name(int start, int length)
+    {
+        /*
+        identifiers are looked up in an open addressing table by their bytes, so a name that was seen before
+        comes back as the same String without allocating. identifiers are plain ASCII, so a byte compares
+        equal to a char.
+         */
+        int hash = 0;
+        for(int i = 0; i < length; i++){
+            hash = 31*hash + source.get(start+i);
+        }
+        int mask = names.length-1;
+        for(int slot = hash & mask; ; slot = (slot+1) & mask){
+            String name = names[slot];
+            if(name == null){
+                name = text(start,start+length);
+                names[slot] = name;
+                if(++nameCount*2 > names.length) rehash();
+                return name;
+            }
+            if(name.hashCode() == hash && sameName(name,start,length)) return name;
+        }
+    }
+    private boolean sameName(String name, int start, int length)
+    {
+        if(name.length() != length) return false;
+        for(int i = 0; i < length; i++){
+            if(name.charAt(i) != source.get(start+i)) return false;
+        }
+        return true;
+    }
+    private void rehash()
+    {
+        //String.hashCode() is the same 31 based hash as above
+        String[] old = names;
+        names = new String[old.length*2];
+        int mask = names.length-1;
+        for(String name : old){
+            if(name == null) continue;
+            int slot = name.hashCode() & mask;
+            while(names[slot] != null) slot = (slot+1) & mask;
+            names[slot] = name;
+        }
+    }
+}
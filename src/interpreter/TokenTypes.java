@@ -9,7 +9,7 @@ public enum TokenTypes {
     //literals : number , strings etc
     IDENTIFIER, STRING, NUMBER,
     //keywords
-    AND,ELSE,FALSE,FUNCTION,FOR,IF,NIL,OR,PRINT,RETURN,TRUE,VAR,WHILE,CLASS,THIS,SUPER,
+    AND,ELSE,FALSE,FUNCTION,FOR,IF,NIL,OR,PRINT,RETURN,TRUE,VAR,WHILE,CLASS,THIS,SUPER,IMPORT,SPAWN,
     //end of file token
     EOF
 